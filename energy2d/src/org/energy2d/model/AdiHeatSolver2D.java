@@ -0,0 +1,142 @@
+package org.energy2d.model;
+
+import org.energy2d.math.Tdma;
+import org.energy2d.util.MiscUtil;
+
+/**
+ * An alternating-direction-implicit (Peaceman-Rachford) conduction solver. Each step is split into two half steps: the first is implicit along the rows and explicit along the columns, the second the other way around. Every half step reduces to independent tridiagonal systems, one per grid line, which are solved directly with the Thomas algorithm.
+ *
+ * Unlike point relaxation, a line solve carries information across the whole domain in a single step, so large, highly conductive parts do not lag behind. As the lines do not depend on each other, they are solved in parallel by the workers of the model.
+ *
+ * @author Charles Xie
+ *
+ */
+class AdiHeatSolver2D extends HeatSolver2D {
+
+	private final static float MINIMUM_CONDUCTIVITY = 0.001f; // the same as the minimum border conductivity in applyBoundary
+
+	private float[][] tStar; // the temperature after the first half step
+	private final ThreadLocal<float[][]> rowScratch;
+	private final ThreadLocal<float[][]> columnScratch;
+
+	AdiHeatSolver2D(final int nx, final int ny) {
+		super(nx, ny);
+		tStar = new float[nx][ny];
+		rowScratch = ThreadLocal.withInitial(() -> new float[5][nx]);
+		columnScratch = ThreadLocal.withInitial(() -> new float[5][ny]);
+	}
+
+	void solve(boolean convective, float[][] t) {
+
+		MiscUtil.copy(t0, t);
+		MiscUtil.copy(tStar, t);
+		iterations = 1; // one direct solve per direction
+
+		final float hx = 0.5f / (deltaX * deltaX);
+		final float hy = 0.5f / (deltaY * deltaY);
+		final float s = 2f / timeStep; // each half step lasts half of the time step
+
+		sweeper.forEach(1, ny1, j -> solveRow(j, t0, tStar, s, hx, hy));
+		applyBoundary(tStar);
+		sweeper.forEach(1, nx1, i -> solveColumn(i, tStar, t, s, hx, hy));
+
+		// use a simple proportional control if applicable
+		if (zHeatDiffusivity != 0) {
+			for (int i = 1; i < nx1; i++) {
+				for (int j = 1; j < ny1; j++) {
+					if (Float.isNaN(tb[i][j]) && (!zHeatDiffusivityOnlyForFluid || fluidity.get(i, j)))
+						t[i][j] -= zHeatDiffusivity * timeStep * (t0[i][j] - backgroundTemperature);
+				}
+			}
+		}
+		applyBoundary(t);
+
+		if (convective) {
+			advect(t);
+		}
+
+	}
+
+	// implicit in x, explicit in y: reads row j of src (and its neighbors) and writes row j of dst
+	private void solveRow(int j, float[][] src, float[][] dst, float s, float hx, float hy) {
+		float[][] w = rowScratch.get();
+		float[] a = w[0], b = w[1], c = w[2], d = w[3], x = w[4];
+		float rij, sij, ayij, byij;
+		for (int i = 1; i < nx1; i++) {
+			if (Float.isNaN(tb[i][j])) {
+				sij = specificHeat[i][j] * density[i][j] * s;
+				rij = conductivity[i][j];
+				a[i] = -hx * (rij + conductivity[i - 1][j]);
+				c[i] = -hx * (rij + conductivity[i + 1][j]);
+				b[i] = sij - a[i] - c[i];
+				ayij = hy * (rij + conductivity[i][j - 1]);
+				byij = hy * (rij + conductivity[i][j + 1]);
+				d[i] = (sij - ayij - byij) * src[i][j] + q[i][j] + ayij * src[i][j - 1] + byij * src[i][j + 1];
+			} else {
+				a[i] = c[i] = 0;
+				b[i] = 1;
+				d[i] = tb[i][j];
+			}
+		}
+		if (boundary instanceof NeumannThermalBoundary) {
+			NeumannThermalBoundary nb = (NeumannThermalBoundary) boundary;
+			setNeumannEnds(a, b, c, d, -nb.getFluxAtBorder(Boundary.LEFT) * deltaX / Math.max(conductivity[0][j], MINIMUM_CONDUCTIVITY), nb.getFluxAtBorder(Boundary.RIGHT) * deltaX / Math.max(conductivity[nx1][j], MINIMUM_CONDUCTIVITY));
+		} else {
+			setDirichletEnds(a, b, c, d, src[0][j], src[nx1][j]);
+		}
+		Tdma.solve(a, b, c, d, x);
+		for (int i = 0; i < nx; i++)
+			dst[i][j] = x[i];
+	}
+
+	// implicit in y, explicit in x: reads column i of src (and its neighbors) and writes column i of dst
+	private void solveColumn(int i, float[][] src, float[][] dst, float s, float hx, float hy) {
+		float[][] w = columnScratch.get();
+		float[] a = w[0], b = w[1], c = w[2], d = w[3], x = w[4];
+		float rij, sij, axij, bxij;
+		for (int j = 1; j < ny1; j++) {
+			if (Float.isNaN(tb[i][j])) {
+				sij = specificHeat[i][j] * density[i][j] * s;
+				rij = conductivity[i][j];
+				a[j] = -hy * (rij + conductivity[i][j - 1]);
+				c[j] = -hy * (rij + conductivity[i][j + 1]);
+				b[j] = sij - a[j] - c[j];
+				axij = hx * (rij + conductivity[i - 1][j]);
+				bxij = hx * (rij + conductivity[i + 1][j]);
+				d[j] = (sij - axij - bxij) * src[i][j] + q[i][j] + axij * src[i - 1][j] + bxij * src[i + 1][j];
+			} else {
+				a[j] = c[j] = 0;
+				b[j] = 1;
+				d[j] = tb[i][j];
+			}
+		}
+		if (boundary instanceof NeumannThermalBoundary) {
+			NeumannThermalBoundary nb = (NeumannThermalBoundary) boundary;
+			setNeumannEnds(a, b, c, d, nb.getFluxAtBorder(Boundary.UPPER) * deltaY / Math.max(conductivity[i][0], MINIMUM_CONDUCTIVITY), -nb.getFluxAtBorder(Boundary.LOWER) * deltaY / Math.max(conductivity[i][ny1], MINIMUM_CONDUCTIVITY));
+		} else {
+			setDirichletEnds(a, b, c, d, src[i][0], src[i][ny1]);
+		}
+		Tdma.solve(a, b, c, d, x);
+		System.arraycopy(x, 0, dst[i], 0, ny);
+	}
+
+	// the border cells keep the values set by applyBoundary
+	private static void setDirichletEnds(float[] a, float[] b, float[] c, float[] d, float first, float last) {
+		int n1 = a.length - 1;
+		a[0] = c[0] = a[n1] = c[n1] = 0;
+		b[0] = b[n1] = 1;
+		d[0] = first;
+		d[n1] = last;
+	}
+
+	// the border cells follow their inner neighbors with the offsets prescribed by the fluxes, solved together with the line
+	private static void setNeumannEnds(float[] a, float[] b, float[] c, float[] d, float firstOffset, float lastOffset) {
+		int n1 = a.length - 1;
+		a[0] = c[n1] = 0;
+		b[0] = b[n1] = 1;
+		c[0] = a[n1] = -1;
+		d[0] = firstOffset;
+		d[n1] = lastOffset;
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.energy2d.model;
+
+import java.util.Arrays;
+
+/**
+ * The grid cells covered by a shape, stored as runs along the rows: run k covers the cells (i, rows[k]) for starts[k] <= i < ends[k]. The runs are sorted by row and, within a row, by start, and they never overlap. Instances are not changed after the rasterizer hands them out.
+ *
+ * @author Charles Xie
+ *
+ */
+class CellSpans {
+
+	final static CellSpans EMPTY = new CellSpans();
+
+	int count;
+	int[] rows, starts, ends;
+
+	CellSpans() {
+		rows = new int[8];
+		starts = new int[8];
+		ends = new int[8];
+	}
+
+	// runs must be added in order, a run that touches the previous one in the same row is merged with it
+	void add(int row, int start, int end) {
+		if (start >= end)
+			return;
+		if (count > 0 && rows[count - 1] == row && start <= ends[count - 1]) {
+			if (end > ends[count - 1])
+				ends[count - 1] = end;
+			return;
+		}
+		if (count == rows.length) {
+			int n = count * 2;
+			rows = Arrays.copyOf(rows, n);
+			starts = Arrays.copyOf(starts, n);
+			ends = Arrays.copyOf(ends, n);
+		}
+		rows[count] = row;
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	int getCellCount() {
+		int n = 0;
+		for (int k = 0; k < count; k++)
+			n += ends[k] - starts[k];
+		return n;
+	}
+
+}
@@ -0,0 +1,279 @@
+package org.energy2d.model;
+
+import java.util.Arrays;
+
+/**
+ * A preconditioned conjugate-gradient solver for the Poisson equations of the fluid solver, lap(x) = b, on the fluid cells only. The unknowns are numbered over a compact list of the fluid cells, so obstacles of any shape cost nothing, and the matrix is never stored: its product with a
+ * vector is computed from the neighbor lists and the two couplings of the five-point stencil.
+ *
+ * The walls of obstacles have a zero normal derivative. Each border either has a zero normal derivative as well or holds x at zero (an open border). If no border is open, the problem is only defined up to a constant and the mean of b is removed first.
+ *
+ * The preconditioner is either the diagonal (Jacobi) or the incomplete Cholesky factorization without fill-in, IC(0), which takes a forward and a backward substitution per iteration but usually needs several times fewer iterations.
+ *
+ * @author Charles Xie
+ *
+ */
+class ConjugateGradientPoissonSolver2D {
+
+	final static byte JACOBI = 0;
+	final static byte INCOMPLETE_CHOLESKY = 1;
+
+	private final static float SINGULAR_SHIFT = 0.001f; // keeps the incomplete factorization of a pure Neumann problem away from zero pivots
+
+	private byte preconditioner = JACOBI;
+	private float tolerance = Model2D.DEFAULT_CONJUGATE_GRADIENT_TOLERANCE; // the iterations stop when the residual has been reduced by this factor
+	private int maximumIterations = Model2D.DEFAULT_CONJUGATE_GRADIENT_ITERATIONS;
+
+	private final int nx, ny;
+	private boolean coefficientsChanged = true;
+	private int openBorders = -1; // a bit (1 << side) for each border that holds x at zero
+	private boolean singular;
+	private float ax, ay;
+
+	// the fluid cells in the order of the grid and, for each of them, the compact indices of its fluid neighbors (cellCount if none)
+	private int cellCount;
+	private int[] cells;
+	private int[] west, east, south, north;
+	private float[] diagonal, factor;
+	private float[] x, r, z, p, q; // one more element than cells, always zero, for the missing neighbors
+
+	private int iterationCount;
+	private float residualNorm;
+
+	ConjugateGradientPoissonSolver2D(int nx, int ny) {
+		this.nx = nx;
+		this.ny = ny;
+	}
+
+	void setPreconditioner(byte preconditioner) {
+		if (preconditioner != this.preconditioner)
+			coefficientsChanged = true;
+		this.preconditioner = preconditioner;
+	}
+
+	byte getPreconditioner() {
+		return preconditioner;
+	}
+
+	void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	float getTolerance() {
+		return tolerance;
+	}
+
+	void setMaximumIterations(int maximumIterations) {
+		this.maximumIterations = Math.max(1, maximumIterations);
+	}
+
+	int getMaximumIterations() {
+		return maximumIterations;
+	}
+
+	/** @return the number of iterations used in the last solve */
+	int getIterationCount() {
+		return iterationCount;
+	}
+
+	/** @return the root-mean-square residual left by the last solve */
+	float getResidualNorm() {
+		return residualNorm;
+	}
+
+	/** must be called after the fluidity mask or the grid cell size changes */
+	void invalidateCoefficients() {
+		coefficientsChanged = true;
+	}
+
+	/**
+	 * Solve lap(x) = b on the fluid cells, starting from zero. The border cells of the solution are set according to the boundary conditions, the solid cells are left to the caller.
+	 *
+	 * @param openBorders
+	 *            a bit (1 << side) for each border that holds the solution at zero
+	 */
+	void solve(float[][] solution, float[][] b, FluidityMask fluidity, int openBorders, float idxsq, float idysq) {
+		solve(solution, b, 1, fluidity, openBorders, idxsq, idysq, false);
+	}
+
+	/**
+	 * Solve lap(x) = scale * b on the fluid cells, so that a caller need not scale (or negate) its array in place. With a warm start, the iterations start from the values already in the solution, which pays off when the solution changes little between two calls. The tolerance
+	 * is always relative to the norm of the right-hand side, so a good initial guess ends the iterations earlier.
+	 */
+	void solve(float[][] solution, float[][] b, float scale, FluidityMask fluidity, int openBorders, float idxsq, float idysq, boolean warmStart) {
+
+		if (openBorders != this.openBorders || idxsq != ax || idysq != ay) {
+			this.openBorders = openBorders;
+			ax = idxsq;
+			ay = idysq;
+			coefficientsChanged = true;
+		}
+		if (coefficientsChanged) {
+			buildCoefficients(fluidity);
+			coefficientsChanged = false;
+		}
+
+		// the right-hand side of D x - A x = -scale * b goes into r, as the initial guess is zero
+		double sum = 0;
+		int m;
+		for (int k = 0; k < cellCount; k++) {
+			m = cells[k];
+			r[k] = -scale * b[m / ny][m % ny];
+			sum += r[k];
+		}
+		if (singular && cellCount > 0) {
+			float mean = (float) (sum / cellCount);
+			for (int k = 0; k < cellCount; k++)
+				r[k] -= mean;
+		}
+		double initialNorm = Math.sqrt(dot(r, r));
+		if (warmStart) {
+			for (int k = 0; k < cellCount; k++) {
+				m = cells[k];
+				x[k] = solution[m / ny][m % ny];
+			}
+			x[cellCount] = 0;
+			multiply(x, q);
+			for (int k = 0; k < cellCount; k++)
+				r[k] -= q[k];
+		} else {
+			Arrays.fill(x, 0);
+		}
+
+		double rz = 0, rzOld;
+		iterationCount = 0;
+		double norm = warmStart ? Math.sqrt(dot(r, r)) : initialNorm;
+		while (iterationCount < maximumIterations && norm > tolerance * initialNorm) {
+			precondition();
+			rzOld = rz;
+			rz = dot(r, z);
+			if (iterationCount == 0) {
+				System.arraycopy(z, 0, p, 0, cellCount);
+			} else {
+				float beta = (float) (rz / rzOld);
+				for (int k = 0; k < cellCount; k++)
+					p[k] = z[k] + beta * p[k];
+			}
+			multiply(p, q);
+			double pq = dot(p, q);
+			if (pq <= 0) // nothing left that the operator can reduce
+				break;
+			float alpha = (float) (rz / pq);
+			for (int k = 0; k < cellCount; k++) {
+				x[k] += alpha * p[k];
+				r[k] -= alpha * q[k];
+			}
+			norm = Math.sqrt(dot(r, r));
+			iterationCount++;
+		}
+		residualNorm = cellCount > 0 ? (float) (norm / Math.sqrt(cellCount)) : 0;
+
+		for (int k = 0; k < cellCount; k++) {
+			m = cells[k];
+			solution[m / ny][m % ny] = x[k];
+		}
+		int nx1 = nx - 1, ny1 = ny - 1;
+		for (int i = 1; i < nx1; i++) {
+			solution[i][0] = (openBorders & (1 << Boundary.UPPER)) != 0 ? 0 : solution[i][1];
+			solution[i][ny1] = (openBorders & (1 << Boundary.LOWER)) != 0 ? 0 : solution[i][ny1 - 1];
+		}
+		for (int j = 1; j < ny1; j++) {
+			solution[0][j] = (openBorders & (1 << Boundary.LEFT)) != 0 ? 0 : solution[1][j];
+			solution[nx1][j] = (openBorders & (1 << Boundary.RIGHT)) != 0 ? 0 : solution[nx1 - 1][j];
+		}
+
+	}
+
+	private void buildCoefficients(FluidityMask fluidity) {
+		int nx1 = nx - 1, ny1 = ny - 1;
+		int[] lookup = new int[nx * ny];
+		Arrays.fill(lookup, -1);
+		cellCount = 0;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (fluidity.get(i, j))
+					lookup[i * ny + j] = cellCount++;
+			}
+		}
+		cells = new int[cellCount];
+		west = new int[cellCount];
+		east = new int[cellCount];
+		south = new int[cellCount];
+		north = new int[cellCount];
+		diagonal = new float[cellCount];
+		x = new float[cellCount + 1];
+		r = new float[cellCount + 1];
+		z = new float[cellCount + 1];
+		p = new float[cellCount + 1];
+		q = new float[cellCount + 1];
+		singular = openBorders == 0;
+		int k, m;
+		float d;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				m = i * ny + j;
+				k = lookup[m];
+				if (k < 0)
+					continue;
+				cells[k] = m;
+				d = 0;
+				west[k] = i > 1 && lookup[m - ny] >= 0 ? lookup[m - ny] : cellCount;
+				east[k] = i < nx1 - 1 && lookup[m + ny] >= 0 ? lookup[m + ny] : cellCount;
+				south[k] = j > 1 && lookup[m - 1] >= 0 ? lookup[m - 1] : cellCount;
+				north[k] = j < ny1 - 1 && lookup[m + 1] >= 0 ? lookup[m + 1] : cellCount;
+				if (west[k] < cellCount || (i == 1 && (openBorders & (1 << Boundary.LEFT)) != 0))
+					d += ax;
+				if (east[k] < cellCount || (i == nx1 - 1 && (openBorders & (1 << Boundary.RIGHT)) != 0))
+					d += ax;
+				if (south[k] < cellCount || (j == 1 && (openBorders & (1 << Boundary.UPPER)) != 0))
+					d += ay;
+				if (north[k] < cellCount || (j == ny1 - 1 && (openBorders & (1 << Boundary.LOWER)) != 0))
+					d += ay;
+				diagonal[k] = d > 0 ? d : 1; // an isolated cell only has to stay at zero
+			}
+		}
+		if (preconditioner == INCOMPLETE_CHOLESKY) {
+			// the pivots of IC(0): the west and south neighbors come earlier in the ordering
+			factor = new float[cellCount + 1];
+			float shift = singular ? 1 + SINGULAR_SHIFT : 1;
+			for (k = 0; k < cellCount; k++) {
+				d = diagonal[k] * shift;
+				if (west[k] < cellCount)
+					d -= ax * ax / factor[west[k]];
+				if (south[k] < cellCount)
+					d -= ay * ay / factor[south[k]];
+				factor[k] = d > 0 ? d : diagonal[k];
+			}
+		} else {
+			factor = null;
+		}
+	}
+
+	// q = (D - A) p, the negative of the discrete Laplacian
+	private void multiply(float[] p, float[] q) {
+		for (int k = 0; k < cellCount; k++)
+			q[k] = diagonal[k] * p[k] - ax * (p[west[k]] + p[east[k]]) - ay * (p[south[k]] + p[north[k]]);
+	}
+
+	// z = M^-1 r
+	private void precondition() {
+		if (factor == null) {
+			for (int k = 0; k < cellCount; k++)
+				z[k] = r[k] / diagonal[k];
+			return;
+		}
+		// forward substitution with (F + L), then backward substitution with (I + F^-1 L^T), where F holds the pivots and L the lower part of the matrix
+		for (int k = 0; k < cellCount; k++)
+			z[k] = (r[k] + ax * z[west[k]] + ay * z[south[k]]) / factor[k];
+		for (int k = cellCount - 1; k >= 0; k--)
+			z[k] += (ax * z[east[k]] + ay * z[north[k]]) / factor[k];
+	}
+
+	private double dot(float[] a, float[] b) {
+		double s = 0;
+		for (int k = 0; k < cellCount; k++)
+			s += a[k] * b[k];
+		return s;
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.energy2d.model;
+
+/**
+ * Decides when a relaxation loop can stop. After each sweep, the solver reports the largest residual of its equations and the largest magnitude of their right-hand side. The loop stops when the residual relative to the right-hand side drops below the tolerance or when the
+ * maximum number of sweeps is reached. A zero tolerance always runs the maximum number of sweeps.
+ *
+ * In a Gauss-Seidel sweep, the residual of an equation just before its cell is updated is the update times the diagonal coefficient, so the solvers get the residuals from the sweep itself. They belong to a state that is partly updated, which is the usual
+ * stopping test of Gauss-Seidel and does not cost another pass over the grid.
+ *
+ * The controller also counts the sweeps it has allowed since the last reset, so that the cost of a time step can be reported.
+ *
+ * @author Charles Xie
+ *
+ */
+class ConvergenceController {
+
+	private float tolerance = Model2D.DEFAULT_RELAXATION_TOLERANCE;
+	private int maximumSweeps;
+	private int iterations;
+
+	ConvergenceController(int maximumSweeps) {
+		this.maximumSweeps = maximumSweeps;
+	}
+
+	void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	float getTolerance() {
+		return tolerance;
+	}
+
+	void setMaximumSweeps(int maximumSweeps) {
+		this.maximumSweeps = Math.max(1, maximumSweeps);
+	}
+
+	int getMaximumSweeps() {
+		return maximumSweeps;
+	}
+
+	/** @return the number of sweeps since the last reset */
+	int getIterations() {
+		return iterations;
+	}
+
+	void resetIterations() {
+		iterations = 0;
+	}
+
+	/**
+	 * Call after each sweep.
+	 *
+	 * @param sweep
+	 *            the zero-based index of the sweep just finished
+	 * @param maximumResidual
+	 *            the largest absolute residual of any equation in this sweep
+	 * @param maximumRightHandSide
+	 *            the largest absolute value of the right-hand side of the equations
+	 * @return true if the loop should stop
+	 */
+	boolean isConverged(int sweep, float maximumResidual, float maximumRightHandSide) {
+		iterations++;
+		if (sweep + 1 >= maximumSweeps)
+			return true;
+		return maximumResidual <= tolerance * maximumRightHandSide;
+	}
+
+}
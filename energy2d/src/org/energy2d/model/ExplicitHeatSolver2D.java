@@ -0,0 +1,156 @@
+package org.energy2d.model;
+
+import org.energy2d.util.MiscUtil;
+
+/**
+ * An explicit conduction solver (forward Euler or the second-order Heun variant of Runge-Kutta) for transient accuracy. Unlike the implicit solver, it has no numeric diffusion that lags the transient state, and each update is a single pass over the grid without relaxation.
+ *
+ * An explicit scheme is only stable when the Fourier number of every cell stays below one. If the time step of the model exceeds the limit computed from the conductivity, density and specific heat arrays, the step is divided into as many equal sub-steps as needed.
+ * A step that would need more than MAXIMUM_SUB_STEPS of them (a tiny cell of a good conductor can make the limit very small) is handed to the implicit solver instead, which is unconditionally stable and then much cheaper.
+ *
+ * @author Charles Xie
+ *
+ */
+class ExplicitHeatSolver2D extends HeatSolver2D {
+
+	final static byte EULER = 1;
+	final static byte RK2 = 2;
+
+	private final static float SAFETY_FACTOR = 0.9f;
+	final static int MAXIMUM_SUB_STEPS = 100;
+
+	private byte order = EULER;
+	private float[][] t1; // the intermediate stage of the second-order scheme
+	private int subSteps = 1;
+	private HeatSolver2DImpl implicitSolver; // takes the steps that need too many sub-steps
+
+	ExplicitHeatSolver2D(int nx, int ny) {
+		this(nx, ny, EULER);
+	}
+
+	ExplicitHeatSolver2D(int nx, int ny, byte order) {
+		super(nx, ny);
+		this.order = order;
+		if (order == RK2)
+			t1 = new float[nx][ny];
+	}
+
+	/** @return the number of sub-steps used in the last step, or zero if the last step was handed to the implicit solver */
+	int getSubSteps() {
+		return subSteps;
+	}
+
+	void solve(boolean convective, float[][] t) {
+
+		float limit = getDiffusionTimeStepLimit() * SAFETY_FACTOR;
+		double n = limit < timeStep ? Math.ceil(timeStep / limit) : 1;
+		if (n > MAXIMUM_SUB_STEPS) {
+			subSteps = 0;
+			solveImplicitly(convective, t);
+			return;
+		}
+		subSteps = (int) n;
+		float dt = timeStep / subSteps;
+		iterations = subSteps;
+
+		for (int k = 0; k < subSteps; k++) {
+			MiscUtil.copy(t0, t);
+			if (order == RK2) {
+				update(t0, t0, t, dt); // predictor: t* = t0 + dt * L(t0)
+				applyBoundary(t);
+				MiscUtil.copy(t1, t);
+				update(t1, t1, t, dt); // t = t* + dt * L(t*)
+				for (int i = 1; i < nx1; i++) {
+					for (int j = 1; j < ny1; j++) {
+						if (Float.isNaN(tb[i][j])) // a fixed cell already holds its temperature
+							t[i][j] = 0.5f * (t0[i][j] + t[i][j]); // corrector: t = t0 + dt/2 * (L(t0) + L(t*))
+					}
+				}
+			} else {
+				update(t0, t0, t, dt);
+			}
+			// use a simple proportional control if applicable
+			if (zHeatDiffusivity != 0) {
+				for (int i = 1; i < nx1; i++) {
+					for (int j = 1; j < ny1; j++) {
+						if (Float.isNaN(tb[i][j]) && (!zHeatDiffusivityOnlyForFluid || fluidity.get(i, j)))
+							t[i][j] -= zHeatDiffusivity * dt * (t0[i][j] - backgroundTemperature);
+					}
+				}
+			}
+			applyBoundary(t);
+		}
+
+		if (convective) {
+			advect(t);
+		}
+
+	}
+
+	// the implicit solver works on the same arrays and settings, and rebuilds its coefficients if they changed since it was last used
+	private void solveImplicitly(boolean convective, float[][] t) {
+		if (implicitSolver == null) {
+			implicitSolver = new HeatSolver2DImpl(nx, ny);
+			coefficientsChanged = true;
+			temperatureBoundaryChanged = true;
+		}
+		HeatSolver2DImpl s = implicitSolver;
+		s.setConductivity(conductivity);
+		s.setSpecificHeat(specificHeat);
+		s.setDensity(density);
+		s.setPower(q);
+		s.setVelocity(u, v);
+		s.setTemperatureBoundary(tb);
+		s.setFluidity(fluidity);
+		s.setBoundary(boundary);
+		s.setTimeStep(timeStep);
+		s.deltaX = deltaX;
+		s.deltaY = deltaY;
+		s.backgroundTemperature = backgroundTemperature;
+		s.zHeatDiffusivity = zHeatDiffusivity;
+		s.zHeatDiffusivityOnlyForFluid = zHeatDiffusivityOnlyForFluid;
+		s.convergence = convergence;
+		s.sweeper = sweeper;
+		s.advectionScheme = advectionScheme;
+		if (coefficientsChanged) {
+			s.invalidateCoefficients();
+			coefficientsChanged = false;
+		}
+		if (temperatureBoundaryChanged) {
+			s.invalidateTemperatureBoundary();
+			temperatureBoundaryChanged = false;
+		}
+		s.solve(convective, t);
+		iterations = s.getIterations();
+	}
+
+	// dst = base + dt * L(src), where L is the conduction operator plus the heat source
+	private void update(float[][] base, float[][] src, float[][] dst, float dt) {
+		float hx = 0.5f / (deltaX * deltaX);
+		float hy = 0.5f / (deltaY * deltaY);
+		float rij, cij, axij, bxij, ayij, byij, flux;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (Float.isNaN(tb[i][j])) {
+					rij = conductivity[i][j];
+					axij = hx * (rij + conductivity[i - 1][j]);
+					bxij = hx * (rij + conductivity[i + 1][j]);
+					ayij = hy * (rij + conductivity[i][j - 1]);
+					byij = hy * (rij + conductivity[i][j + 1]);
+					flux = q[i][j] + axij * src[i - 1][j] + bxij * src[i + 1][j] + ayij * src[i][j - 1] + byij * src[i][j + 1];
+					cij = specificHeat[i][j] * density[i][j];
+					if (cij > 0) {
+						dst[i][j] = base[i][j] + dt / cij * (flux - (axij + bxij + ayij + byij) * src[i][j]);
+					} else if (axij + bxij + ayij + byij > 0) { // a cell without heat capacity (vacuum) is always at its quasi-steady state
+						dst[i][j] = flux / (axij + bxij + ayij + byij);
+					} else {
+						dst[i][j] = base[i][j];
+					}
+				} else {
+					dst[i][j] = tb[i][j];
+				}
+			}
+		}
+	}
+
+}
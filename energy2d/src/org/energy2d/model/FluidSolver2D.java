@@ -14,13 +14,28 @@ import org.energy2d.util.MiscUtil;
 abstract class FluidSolver2D {
 
 	// five relaxation steps are probably enough for most transient problems because there are numerous previous steps that can be considered as pre-relaxation steps,
-	// especially when changes are slow or small.
-	static byte relaxationSteps = 5;
+	// especially when changes are slow or small. The controllers stop earlier when the sweeps no longer change anything.
+	ConvergenceController viscosityConvergence = new ConvergenceController(Model2D.DEFAULT_RELAXATION_SWEEPS);
+	ConvergenceController pressureConvergence = new ConvergenceController(Model2D.DEFAULT_RELAXATION_SWEEPS);
+	ConvergenceController streamConvergence = new ConvergenceController(Model2D.DEFAULT_RELAXATION_SWEEPS);
+	RelaxationSweeper sweeper = new RelaxationSweeper();
 
 	private float thermalExpansionCoefficient = 0.00025f;
 	private float gravity = 0; // not set
 	private byte buoyancyApproximation = Model2D.BUOYANCY_AVERAGE_ALL;
 	private byte gravityType = Model2D.GRAVITY_UNIFORM;
+	private byte pressureSolverType = Model2D.PRESSURE_SOLVER_RELAXATION;
+	byte advectionScheme = Model2D.ADVECTION_MACCORMACK;
+	private byte streamFunctionSolverType = Model2D.STREAM_FUNCTION_SOLVER_RELAXATION;
+	private byte preconditioner = Model2D.PRECONDITIONER_JACOBI;
+	private float conjugateGradientTolerance = Model2D.DEFAULT_CONJUGATE_GRADIENT_TOLERANCE;
+	private int maximumConjugateGradientIterations = Model2D.DEFAULT_CONJUGATE_GRADIENT_ITERATIONS;
+	private float multigridTolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE;
+	private int maximumMultigridCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+	private MultigridPoissonSolver2D multigridPressureSolver;
+	private ConjugateGradientPoissonSolver2D conjugateGradientPressureSolver, conjugateGradientStreamSolver;
+	private int pressureSolverIterations; // the multigrid cycles or conjugate-gradient iterations of the last step
+	private float pressureSolverResidual = Float.NaN; // the residual norm left by the last multigrid or conjugate-gradient solve
 
 	float viscosity = Constants.AIR_VISCOSITY;
 
@@ -28,7 +43,7 @@ abstract class FluidSolver2D {
 	float[][] u0, v0;
 	float timeStep = .1f;
 	float deltaX, deltaY;
-	boolean[][] fluidity;
+	FluidityMask fluidity;
 	MassBoundary boundary;
 	float[][] t;
 	float[][] uWind, vWind;
@@ -37,6 +52,19 @@ abstract class FluidSolver2D {
 	private float i2dx, i2dy;
 	float idxsq, idysq;
 
+	// the fluid neighbors that a solid cell takes its values from (at most one in each direction, the west and south ones first)
+	private final static byte WEST = 1, EAST = 2, SOUTH = 4, NORTH = 8;
+
+	// the solid interior cells next to fluid, followed by the enclosed solid cells that have a wind speed. Rebuilt only when the materials change.
+	private int[] obstacleColumns, obstacleRows;
+	private byte[] obstacleNeighbors;
+	private int boundaryCellCount, obstacleCellCount;
+	private boolean obstaclesChanged = true;
+
+	// for the column-average buoyancy: the range [lower, upper) of the column span that each fluid cell (at i * ny + j) averages over, and the prefix sums of a column
+	private int[] spanLower, spanUpper;
+	private double[] columnSum;
+
 	FluidSolver2D(int nx, int ny) {
 		this.nx = nx;
 		this.ny = ny;
@@ -82,6 +110,85 @@ abstract class FluidSolver2D {
 		return gravityType;
 	}
 
+	void setPressureSolverType(byte pressureSolverType) {
+		this.pressureSolverType = pressureSolverType;
+	}
+
+	byte getPressureSolverType() {
+		return pressureSolverType;
+	}
+
+	void setStreamFunctionSolverType(byte streamFunctionSolverType) {
+		this.streamFunctionSolverType = streamFunctionSolverType;
+	}
+
+	byte getStreamFunctionSolverType() {
+		return streamFunctionSolverType;
+	}
+
+	void setPreconditioner(byte preconditioner) {
+		this.preconditioner = preconditioner;
+	}
+
+	byte getPreconditioner() {
+		return preconditioner;
+	}
+
+	void setConjugateGradientTolerance(float conjugateGradientTolerance) {
+		this.conjugateGradientTolerance = conjugateGradientTolerance;
+	}
+
+	float getConjugateGradientTolerance() {
+		return conjugateGradientTolerance;
+	}
+
+	void setMaximumConjugateGradientIterations(int maximumConjugateGradientIterations) {
+		this.maximumConjugateGradientIterations = maximumConjugateGradientIterations;
+	}
+
+	int getMaximumConjugateGradientIterations() {
+		return maximumConjugateGradientIterations;
+	}
+
+	void setMultigridTolerance(float multigridTolerance) {
+		this.multigridTolerance = multigridTolerance;
+	}
+
+	float getMultigridTolerance() {
+		return multigridTolerance;
+	}
+
+	void setMaximumMultigridCycles(int maximumMultigridCycles) {
+		this.maximumMultigridCycles = maximumMultigridCycles;
+	}
+
+	int getMaximumMultigridCycles() {
+		return maximumMultigridCycles;
+	}
+
+	/** @return the root-mean-square residual of the pressure equation left by the last multigrid or conjugate-gradient solve, or NaN for the relaxation solver */
+	float getPressureSolverResidual() {
+		return pressureSolverResidual;
+	}
+
+	private ConjugateGradientPoissonSolver2D configure(ConjugateGradientPoissonSolver2D s) {
+		if (s == null)
+			s = new ConjugateGradientPoissonSolver2D(nx, ny);
+		s.setPreconditioner(preconditioner == Model2D.PRECONDITIONER_INCOMPLETE_CHOLESKY ? ConjugateGradientPoissonSolver2D.INCOMPLETE_CHOLESKY : ConjugateGradientPoissonSolver2D.JACOBI);
+		s.setTolerance(conjugateGradientTolerance);
+		s.setMaximumIterations(maximumConjugateGradientIterations);
+		return s;
+	}
+
+	private void invalidatePoissonSolvers() {
+		if (multigridPressureSolver != null)
+			multigridPressureSolver.invalidateCoefficients();
+		if (conjugateGradientPressureSolver != null)
+			conjugateGradientPressureSolver.invalidateCoefficients();
+		if (conjugateGradientStreamSolver != null)
+			conjugateGradientStreamSolver.invalidateCoefficients();
+	}
+
 	void setBuoyancyApproximation(byte buoyancyApproximation) {
 		this.buoyancyApproximation = buoyancyApproximation;
 	}
@@ -115,8 +222,14 @@ abstract class FluidSolver2D {
 		this.t = t;
 	}
 
-	void setFluidity(boolean[][] fluidity) {
+	void setFluidity(FluidityMask fluidity) {
 		this.fluidity = fluidity;
+		obstaclesChanged = true;
+	}
+
+	/** must be called after the fluidity mask or the wind speed arrays change */
+	void invalidateObstacles() {
+		obstaclesChanged = true;
 	}
 
 	void setGridCellSize(float deltaX, float deltaY) {
@@ -126,6 +239,24 @@ abstract class FluidSolver2D {
 		i2dy = 0.5f / deltaY;
 		idxsq = 1f / (deltaX * deltaX);
 		idysq = 1f / (deltaY * deltaY);
+		invalidatePoissonSolvers();
+	}
+
+	/** @return the number of relaxation sweeps (viscous diffusion plus pressure projection, where a multigrid cycle or a conjugate-gradient iteration counts as one) taken by the last step */
+	int getIterations() {
+		return viscosityConvergence.getIterations() + pressureConvergence.getIterations() + pressureSolverIterations;
+	}
+
+	void setRelaxationTolerance(float tolerance) {
+		viscosityConvergence.setTolerance(tolerance);
+		pressureConvergence.setTolerance(tolerance);
+		streamConvergence.setTolerance(tolerance);
+	}
+
+	void setMaximumRelaxationSweeps(int maximumSweeps) {
+		viscosityConvergence.setMaximumSweeps(maximumSweeps);
+		pressureConvergence.setMaximumSweeps(maximumSweeps);
+		streamConvergence.setMaximumSweeps(maximumSweeps);
 	}
 
 	void setTimeStep(float timeStep) {
@@ -136,83 +267,137 @@ abstract class FluidSolver2D {
 		return timeStep;
 	}
 
-	private void setObstacleVelocity(float[][] u, float[][] v) {
-		int count = 0;
-		float uw, vw;
+	private void buildObstacleLists(float[][] u, float[][] v) {
+		obstacleColumns = new int[64];
+		obstacleRows = new int[64];
+		obstacleNeighbors = new byte[64];
+		obstacleCellCount = 0;
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (!fluidity[i][j]) {
-					uw = uWind[i][j];
-					vw = vWind[i][j];
-					count = 0;
-					if (fluidity[i - 1][j]) {
-						count++;
-						u[i][j] = uw - u[i - 1][j];
-						v[i][j] = vw + v[i - 1][j];
-					} else if (fluidity[i + 1][j]) {
-						count++;
-						u[i][j] = uw - u[i + 1][j];
-						v[i][j] = vw + v[i + 1][j];
-					}
-					if (fluidity[i][j - 1]) {
-						count++;
-						u[i][j] = uw + u[i][j - 1];
-						v[i][j] = vw - v[i][j - 1];
-					} else if (fluidity[i][j + 1]) {
-						count++;
-						u[i][j] = uw + u[i][j + 1];
-						v[i][j] = vw - v[i][j + 1];
-					}
-					if (count == 0) {
-						u[i][j] = uw;
-						v[i][j] = vw;
-					}
+				if (!fluidity.get(i, j)) {
+					byte n = 0;
+					if (fluidity.get(i - 1, j))
+						n |= WEST;
+					else if (fluidity.get(i + 1, j))
+						n |= EAST;
+					if (fluidity.get(i, j - 1))
+						n |= SOUTH;
+					else if (fluidity.get(i, j + 1))
+						n |= NORTH;
+					if (n != 0)
+						addObstacleCell(i, j, n);
 				}
 			}
 		}
-	}
-
-	// ensure dx/dn = 0 at the boundary (the Neumann boundary condition)
-	private void setObstacleBoundary(float[][] x) {
+		boundaryCellCount = obstacleCellCount;
+		buildColumnSpans();
+		invalidatePoissonSolvers();
+		// an enclosed solid cell only holds the wind speed, which does not change until the lists are rebuilt, so the calm ones are set here once
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (!fluidity[i][j]) {
-					if (fluidity[i - 1][j]) {
-						x[i][j] = x[i - 1][j];
-					} else if (fluidity[i + 1][j]) {
-						x[i][j] = x[i + 1][j];
-					}
-					if (fluidity[i][j - 1]) {
-						x[i][j] = x[i][j - 1];
-					} else if (fluidity[i][j + 1]) {
-						x[i][j] = x[i][j + 1];
+				if (!fluidity.get(i, j) && !fluidity.get(i - 1, j) && !fluidity.get(i + 1, j) && !fluidity.get(i, j - 1) && !fluidity.get(i, j + 1)) {
+					if (uWind[i][j] != 0 || vWind[i][j] != 0) {
+						addObstacleCell(i, j, (byte) 0);
+					} else {
+						u[i][j] = v[i][j] = 0;
 					}
 				}
 			}
 		}
+		obstaclesChanged = false;
 	}
 
-	private float getMeanTemperature(int i, int j) {
-		int lowerBound = 0;
-		// search for the upper bound
-		for (int k = j - 1; k > 0; k--) {
-			if (!fluidity[i][k]) {
-				lowerBound = k;
-				break;
+	private void addObstacleCell(int i, int j, byte neighbors) {
+		if (obstacleCellCount == obstacleColumns.length) {
+			int n = obstacleCellCount * 2;
+			obstacleColumns = Arrays.copyOf(obstacleColumns, n);
+			obstacleRows = Arrays.copyOf(obstacleRows, n);
+			obstacleNeighbors = Arrays.copyOf(obstacleNeighbors, n);
+		}
+		obstacleColumns[obstacleCellCount] = i;
+		obstacleRows[obstacleCellCount] = j;
+		obstacleNeighbors[obstacleCellCount] = neighbors;
+		obstacleCellCount++;
+	}
+
+	private void setObstacleVelocity(float[][] u, float[][] v) {
+		int i, j;
+		byte n;
+		float uw, vw;
+		for (int k = 0; k < obstacleCellCount; k++) {
+			i = obstacleColumns[k];
+			j = obstacleRows[k];
+			n = obstacleNeighbors[k];
+			uw = uWind[i][j];
+			vw = vWind[i][j];
+			if ((n & WEST) != 0) {
+				u[i][j] = uw - u[i - 1][j];
+				v[i][j] = vw + v[i - 1][j];
+			} else if ((n & EAST) != 0) {
+				u[i][j] = uw - u[i + 1][j];
+				v[i][j] = vw + v[i + 1][j];
+			}
+			if ((n & SOUTH) != 0) {
+				u[i][j] = uw + u[i][j - 1];
+				v[i][j] = vw - v[i][j - 1];
+			} else if ((n & NORTH) != 0) {
+				u[i][j] = uw + u[i][j + 1];
+				v[i][j] = vw - v[i][j + 1];
+			}
+			if (n == 0) {
+				u[i][j] = uw;
+				v[i][j] = vw;
 			}
 		}
-		int upperBound = ny;
-		for (int k = j + 1; k < ny; k++) {
-			if (!fluidity[i][k]) {
-				upperBound = k;
-				break;
+	}
+
+	// ensure dx/dn = 0 at the boundary (the Neumann boundary condition)
+	private void setObstacleBoundary(float[][] x) {
+		int i, j;
+		byte n;
+		for (int k = 0; k < boundaryCellCount; k++) {
+			i = obstacleColumns[k];
+			j = obstacleRows[k];
+			n = obstacleNeighbors[k];
+			if ((n & WEST) != 0) {
+				x[i][j] = x[i - 1][j];
+			} else if ((n & EAST) != 0) {
+				x[i][j] = x[i + 1][j];
+			}
+			if ((n & SOUTH) != 0) {
+				x[i][j] = x[i][j - 1];
+			} else if ((n & NORTH) != 0) {
+				x[i][j] = x[i][j + 1];
 			}
 		}
-		float t0 = 0;
-		for (int k = lowerBound; k < upperBound; k++) {
-			t0 += t[i][k];
+	}
+
+	// A fluid cell averages from the nearest solid cell below it (or the border) up to, but not including, the nearest solid cell above it (or beyond the border). All the fluid cells between two solid cells share the same span.
+	private void buildColumnSpans() {
+		if (spanLower == null) {
+			spanLower = new int[nx * ny];
+			spanUpper = new int[nx * ny];
+			columnSum = new double[ny + 1];
+		}
+		int lower, upper, j;
+		for (int i = 1; i < nx1; i++) {
+			lower = 0;
+			j = 1;
+			while (j < ny1) {
+				if (!fluidity.get(i, j)) {
+					lower = j++;
+					continue;
+				}
+				upper = j + 1;
+				while (upper < ny && fluidity.get(i, upper))
+					upper++;
+				for (int k = j; k < upper && k < ny1; k++) {
+					spanLower[i * ny + k] = lower;
+					spanUpper[i * ny + k] = upper;
+				}
+				j = upper;
+			}
 		}
-		return t0 / (upperBound - lowerBound);
 	}
 
 	// Boussinesq approximation: density differences are sufficiently small to be neglected, except where they appear in terms multiplied by g, the acceleration due to gravity.
@@ -229,18 +414,26 @@ abstract class FluidSolver2D {
 			t0 = MathUtil.getAverage(t);
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
-					if (fluidity[i][j]) {
+					if (fluidity.get(i, j)) {
 						f[i][j] += (g - b) * t[i][j] + b * t0;
 					}
 				}
 			}
 			break;
 		case Model2D.BUOYANCY_AVERAGE_COLUMN:
+			int m, lower, upper;
+			float[] ti;
 			for (int i = 1; i < nx1; i++) {
+				ti = t[i];
+				for (int j = 0; j < ny; j++)
+					columnSum[j + 1] = columnSum[j] + ti[j];
 				for (int j = 1; j < ny1; j++) {
-					if (fluidity[i][j]) {
-						t0 = getMeanTemperature(i, j);
-						f[i][j] += (g - b) * t[i][j] + b * t0;
+					if (fluidity.get(i, j)) {
+						m = i * ny + j;
+						lower = spanLower[m];
+						upper = spanUpper[m];
+						t0 = (float) ((columnSum[upper] - columnSum[lower]) / (upper - lower));
+						f[i][j] += (g - b) * ti[j] + b * t0;
 					}
 				}
 			}
@@ -257,7 +450,7 @@ abstract class FluidSolver2D {
 		float cx = nx / 2, cy = ny / 2;
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
+				if (fluidity.get(i, j)) {
 					dx = (i - cx) * deltaX;
 					dy = (j - cy) * deltaY;
 					dr = (float) (1.0 / Math.hypot(dx, dy));
@@ -277,6 +470,11 @@ abstract class FluidSolver2D {
 
 	// Copying a two-dimensional array is very fast. Considering this, I chose clarity instead of swapping the arrays.
 	void solve(float[][] u, float[][] v) {
+		viscosityConvergence.resetIterations();
+		pressureConvergence.resetIterations();
+		pressureSolverIterations = 0;
+		if (obstaclesChanged)
+			buildObstacleLists(u, v);
 		if (thermalExpansionCoefficient != 0) {
 			switch (gravityType) {
 			case Model2D.GRAVITY_UNIFORM:
@@ -309,32 +507,53 @@ abstract class FluidSolver2D {
 
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
+				if (fluidity.get(i, j)) {
 					div[i][j] = (u[i + 1][j] - u[i - 1][j]) * i2dx + (v[i][j + 1] - v[i][j - 1]) * i2dy;
 					phi[i][j] = 0;
 				}
 			}
 		}
-		applyBoundary(0, div);
-		applyBoundary(0, phi);
-		setObstacleBoundary(div);
-		setObstacleBoundary(phi);
-
-		float s = 0.5f / (idxsq + idysq);
 
-		for (int k = 0; k < relaxationSteps; k++) {
-			for (int i = 1; i < nx1; i++) {
-				for (int j = 1; j < ny1; j++) {
-					if (fluidity[i][j]) {
-						phi[i][j] = s * ((phi[i - 1][j] + phi[i + 1][j]) * idxsq + (phi[i][j - 1] + phi[i][j + 1]) * idysq - div[i][j]);
-					}
-				}
+		if (pressureSolverType == Model2D.PRESSURE_SOLVER_MULTIGRID) {
+			if (multigridPressureSolver == null)
+				multigridPressureSolver = new MultigridPoissonSolver2D(nx, ny);
+			multigridPressureSolver.setTolerance(multigridTolerance);
+			multigridPressureSolver.setMaximumCycles(maximumMultigridCycles);
+			multigridPressureSolver.solve(phi, div, fluidity, (SimpleMassBoundary) boundary, idxsq, idysq, sweeper);
+			setObstacleBoundary(phi);
+			pressureSolverIterations += multigridPressureSolver.getCycleCount();
+			pressureSolverResidual = multigridPressureSolver.getResidualNorm();
+		} else if (pressureSolverType == Model2D.PRESSURE_SOLVER_CONJUGATE_GRADIENT) {
+			conjugateGradientPressureSolver = configure(conjugateGradientPressureSolver);
+			SimpleMassBoundary b = (SimpleMassBoundary) boundary;
+			int openBorders = 0;
+			for (byte side = Boundary.UPPER; side <= Boundary.LEFT; side++) {
+				if (b.getFlowTypeAtBorder(side) == MassBoundary.THROUGH)
+					openBorders |= 1 << side;
+			}
+			conjugateGradientPressureSolver.solve(phi, div, fluidity, openBorders, idxsq, idysq);
+			setObstacleBoundary(phi);
+			pressureSolverIterations += conjugateGradientPressureSolver.getIterationCount();
+			pressureSolverResidual = conjugateGradientPressureSolver.getResidualNorm();
+		} else {
+			pressureSolverResidual = Float.NaN;
+			applyBoundary(0, div);
+			applyBoundary(0, phi);
+			setObstacleBoundary(div);
+			setObstacleBoundary(phi);
+			final float s = 0.5f / (idxsq + idysq);
+			RelaxationSweeper.Kernel kernel = (iStart, iEnd, colour, stats) -> relaxPressure(phi, div, s, iStart, iEnd, colour, stats);
+			float[] stats = new float[2];
+			for (int k = 0;; k++) {
+				sweeper.sweep(nx1, kernel, stats);
+				if (pressureConvergence.isConverged(k, stats[0] / s, stats[1])) // the residual is the largest change times the diagonal
+					break;
 			}
 		}
 
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
+				if (fluidity.get(i, j)) {
 					u[i][j] -= (phi[i + 1][j] - phi[i - 1][j]) * i2dx;
 					v[i][j] -= (phi[i][j + 1] - phi[i][j - 1]) * i2dy;
 				}
@@ -345,31 +564,89 @@ abstract class FluidSolver2D {
 
 	}
 
+	private void relaxPressure(float[][] phi, float[][] div, float s, int iStart, int iEnd, int colour, float[] stats) {
+		float p, change;
+		float maxChange = stats[0], maxRightHandSide = stats[1];
+		int stride = RelaxationSweeper.rowStride(colour);
+		for (int i = iStart; i < iEnd; i++) {
+			for (int j = RelaxationSweeper.firstRow(i, colour); j < ny1; j += stride) {
+				if (fluidity.get(i, j)) {
+					p = s * ((phi[i - 1][j] + phi[i + 1][j]) * idxsq + (phi[i][j - 1] + phi[i][j + 1]) * idysq - div[i][j]);
+					change = Math.abs(p - phi[i][j]);
+					if (change > maxChange)
+						maxChange = change;
+					if (Math.abs(div[i][j]) > maxRightHandSide)
+						maxRightHandSide = Math.abs(div[i][j]);
+					phi[i][j] = p;
+				}
+			}
+		}
+		stats[0] = maxChange;
+		stats[1] = maxRightHandSide;
+	}
+
+	/** @return the root-mean-square divergence of the velocity field over the fluid cells, computed with the same differences as the projection step (zero for a perfectly incompressible flow) */
+	float getDivergenceNorm(float[][] u, float[][] v) {
+		double sum = 0;
+		int count = 0;
+		float div;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (fluidity.get(i, j)) {
+					div = (u[i + 1][j] - u[i - 1][j]) * i2dx + (v[i][j + 1] - v[i][j - 1]) * i2dy;
+					sum += div * div;
+					count++;
+				}
+			}
+		}
+		return count > 0 ? (float) Math.sqrt(sum / count) : 0;
+	}
+
 	float[][] getStreamFunction(float[][] u, float[][] v) {
 		if (vorticity == null)
 			vorticity = new float[nx][ny];
 		if (stream == null)
 			stream = new float[nx][ny];
+		if (obstaclesChanged)
+			buildObstacleLists(u, v);
 		calculateVorticity(u, v);
 		calculateStreamFunction();
 		return stream;
 	}
 
+	// starts from the stream function of the last call, which is usually close as the flow changes little between two calls
 	private void calculateStreamFunction() {
-		float s = 0.5f / (idxsq + idysq);
-		for (int i = 0; i < nx; i++) {
-			Arrays.fill(stream[i], 0);
+		if (streamFunctionSolverType == Model2D.STREAM_FUNCTION_SOLVER_CONJUGATE_GRADIENT) {
+			// lap(stream) = -vorticity with zero normal derivatives everywhere, the same conditions as the relaxation below
+			conjugateGradientStreamSolver = configure(conjugateGradientStreamSolver);
+			conjugateGradientStreamSolver.solve(stream, vorticity, -1, fluidity, 0, idxsq, idysq, true);
+			applyBoundary(0, stream);
+			setObstacleBoundary(stream);
+			return;
 		}
-		for (int k = 0; k < relaxationSteps; k++) {
+		float s = 0.5f / (idxsq + idysq);
+		float f, change, maxChange, maxRightHandSide;
+		streamConvergence.resetIterations();
+		for (int k = 0;; k++) {
+			maxChange = 0;
+			maxRightHandSide = 0;
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
-					if (fluidity[i][j]) {
-						stream[i][j] = s * ((stream[i - 1][j] + stream[i + 1][j]) * idxsq + (stream[i][j - 1] + stream[i][j + 1]) * idysq + vorticity[i][j]);
+					if (fluidity.get(i, j)) {
+						f = s * ((stream[i - 1][j] + stream[i + 1][j]) * idxsq + (stream[i][j - 1] + stream[i][j + 1]) * idysq + vorticity[i][j]);
+						change = Math.abs(f - stream[i][j]);
+						if (change > maxChange)
+							maxChange = change;
+						if (Math.abs(vorticity[i][j]) > maxRightHandSide)
+							maxRightHandSide = Math.abs(vorticity[i][j]);
+						stream[i][j] = f;
 					}
 				}
 			}
 			applyBoundary(0, stream);
 			setObstacleBoundary(stream);
+			if (streamConvergence.isConverged(k, maxChange / s, maxRightHandSide)) // the residual is the largest change times the diagonal
+				break;
 		}
 	}
 
@@ -377,7 +654,7 @@ abstract class FluidSolver2D {
 		float du_dy, dv_dx;
 		for (int i = 1; i < nx1; i++) {
 			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
+				if (fluidity.get(i, j)) {
 					du_dy = (u[i][j + 1] - u[i][j - 1]) / (2 * deltaY);
 					dv_dx = (v[i + 1][j] - v[i - 1][j]) / (2 * deltaX);
 					vorticity[i][j] = du_dy - dv_dx;
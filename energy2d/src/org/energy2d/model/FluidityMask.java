@@ -0,0 +1,48 @@
+package org.energy2d.model;
+
+import java.util.Arrays;
+
+/**
+ * Marks which cells of the grid are fluid, one bit per cell. The bits are packed into longs in the order of the cells of a float[nx][ny] array (row by row), so cell (i, j) is bit i * ny + j. Compared with a boolean[nx][ny] array, the mask takes an eighth of the memory, which keeps it in cache while the solvers sweep over the fields.
+ *
+ * @author Charles Xie
+ *
+ */
+class FluidityMask {
+
+	private final int nx, ny;
+	private final long[] bits;
+
+	FluidityMask(int nx, int ny) {
+		this.nx = nx;
+		this.ny = ny;
+		bits = new long[(nx * ny + 63) >>> 6];
+	}
+
+	int getNx() {
+		return nx;
+	}
+
+	int getNy() {
+		return ny;
+	}
+
+	/** @return true if cell (i, j) is fluid */
+	boolean get(int i, int j) {
+		int m = i * ny + j;
+		return (bits[m >>> 6] & (1L << m)) != 0;
+	}
+
+	void set(int i, int j, boolean fluid) {
+		int m = i * ny + j;
+		if (fluid)
+			bits[m >>> 6] |= 1L << m;
+		else
+			bits[m >>> 6] &= ~(1L << m);
+	}
+
+	void fill(boolean fluid) {
+		Arrays.fill(bits, fluid ? -1L : 0L);
+	}
+
+}
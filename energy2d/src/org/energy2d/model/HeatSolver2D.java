@@ -17,12 +17,20 @@ abstract class HeatSolver2D {
 	float[][] u, v;
 	float[][] tb;
 	float[][] t0; // array that stores the previous temperature results
-	boolean[][] fluidity;
+	FluidityMask fluidity;
 	float deltaX, deltaY;
 	float timeStep = 0.1f;
 	float backgroundTemperature;
 	float zHeatDiffusivity;
 	boolean zHeatDiffusivityOnlyForFluid;
+	float residualNorm = Float.NaN; // root-mean-square residual (in degrees) left by the last step, NaN if the solver does not track it
+	int iterations; // relaxation sweeps, multigrid cycles or sub-steps taken by the last step
+	ConvergenceController convergence = new ConvergenceController(Model2D.DEFAULT_RELAXATION_SWEEPS);
+	RelaxationSweeper sweeper = new RelaxationSweeper();
+	boolean coefficientsChanged = true; // set when the material properties, the time step or the cell size change, for solvers that cache coefficients
+	boolean temperatureBoundaryChanged = true; // set when the temperature boundary array changes, for solvers that cache which cells are fixed
+	byte advectionScheme = Model2D.ADVECTION_MACCORMACK;
+	private SemiLagrangianAdvector semiLagrangianAdvector;
 
 	HeatSolver2D(int nx, int ny) {
 		this.nx = nx;
@@ -42,20 +50,38 @@ abstract class HeatSolver2D {
 	}
 
 	void setTimeStep(float timeStep) {
+		if (timeStep != this.timeStep)
+			coefficientsChanged = true;
 		this.timeStep = timeStep;
 	}
 
+	/** must be called after the conductivity, specific heat or density arrays change */
+	void invalidateCoefficients() {
+		coefficientsChanged = true;
+	}
+
+	/** must be called after the conductivity, specific heat or density arrays change only in the cells from (i0, j0) up to (but not including) (i1, j1). Solvers that can update their coefficients in place override this. */
+	void invalidateCoefficients(int i0, int j0, int i1, int j1) {
+		coefficientsChanged = true;
+	}
+
+	/** must be called after the temperature boundary array changes */
+	void invalidateTemperatureBoundary() {
+		temperatureBoundaryChanged = true;
+	}
+
 	float getTimeStep() {
 		return timeStep;
 	}
 
-	void setFluidity(boolean[][] fluidity) {
+	void setFluidity(FluidityMask fluidity) {
 		this.fluidity = fluidity;
 	}
 
 	void setGridCellSize(float deltaX, float deltaY) {
 		this.deltaX = deltaX;
 		this.deltaY = deltaY;
+		coefficientsChanged = true;
 	}
 
 	void setBoundary(ThermalBoundary boundary) {
@@ -91,8 +117,78 @@ abstract class HeatSolver2D {
 		this.tb = tb;
 	}
 
+	float getResidualNorm() {
+		return residualNorm;
+	}
+
+	int getIterations() {
+		return iterations;
+	}
+
 	abstract void solve(boolean convective, float[][] t);
 
+	/**
+	 * @return the largest time step for which an explicit conduction update is stable in every free cell (unit Fourier number), or infinity if there is no conduction
+	 */
+	float getDiffusionTimeStepLimit() {
+		float hx = 0.5f / (deltaX * deltaX);
+		float hy = 0.5f / (deltaY * deltaY);
+		float limit = Float.MAX_VALUE;
+		float rij, cij, sum;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (Float.isNaN(tb[i][j])) {
+					cij = specificHeat[i][j] * density[i][j];
+					if (cij > 0) {
+						rij = conductivity[i][j];
+						sum = hx * (2 * rij + conductivity[i - 1][j] + conductivity[i + 1][j]) + hy * (2 * rij + conductivity[i][j - 1] + conductivity[i][j + 1]);
+						if (sum > 0 && cij < limit * sum)
+							limit = cij / sum;
+					}
+				}
+			}
+		}
+		return limit;
+	}
+
+	void advect(float[][] t) {
+		if (advectionScheme == Model2D.ADVECTION_MACCORMACK) {
+			macCormack(t);
+		} else {
+			if (semiLagrangianAdvector == null)
+				semiLagrangianAdvector = new SemiLagrangianAdvector(nx, ny);
+			semiLagrangianAdvector.advect(t, u, v, fluidity, timeStep, deltaX, deltaY, advectionScheme == Model2D.ADVECTION_SEMI_LAGRANGIAN_MACCORMACK, sweeper);
+			applyBoundary(t);
+		}
+	}
+
+	// MacCormack
+	private void macCormack(float[][] t) {
+
+		float tx = 0.5f * timeStep / deltaX;
+		float ty = 0.5f * timeStep / deltaY;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (fluidity.get(i, j)) {
+					t0[i][j] = t[i][j] - tx * (u[i + 1][j] * t[i + 1][j] - u[i - 1][j] * t[i - 1][j]) - ty * (v[i][j + 1] * t[i][j + 1] - v[i][j - 1] * t[i][j - 1]);
+				}
+			}
+		}
+
+		applyBoundary(t0);
+
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (fluidity.get(i, j)) {
+					t[i][j] = 0.5f * (t[i][j] + t0[i][j]) - 0.5f * tx * u[i][j] * (t0[i + 1][j] - t0[i - 1][j]) - 0.5f * ty * v[i][j] * (t0[i][j + 1] - t0[i][j - 1]);
+				}
+			}
+		}
+
+		applyBoundary(t);
+
+	}
+
 	void applyBoundary(float[][] t) {
 
 		if (boundary instanceof DirichletThermalBoundary) {
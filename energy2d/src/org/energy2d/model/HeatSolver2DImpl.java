@@ -7,53 +7,110 @@ import org.energy2d.util.MiscUtil;
  * 
  * A smaller time step will need to be used, compared with an explicit solver.
  * 
- * We should also implement an explicit solver as an option. It makes no sense to use an implicit method when we need transient accuracy.
+ * When transient accuracy matters, use the explicit solver (ExplicitHeatSolver2D) instead.
  * 
  * @author Charles Xie
  * 
  */
 class HeatSolver2DImpl extends HeatSolver2D {
 
-	// five relaxation steps are probably enough for most transient problems because there are numerous previous steps that
-	// can be considered as pre-relaxation steps, especially when changes are slow or small.
-	private static byte relaxationSteps = 5;
+	// coefficients of the discretized equation, rebuilt only when the material properties, the time step or the cell size change
+	private float[][] capacity; // c*rho/dt
+	private float[][] west, east, south, north; // conductances to the four neighbors
+	private float[][] inverseDiagonal;
+
+	// the box of cells whose coefficients are stale after the material arrays changed in part of the grid, empty if staleI0 >= staleI1
+	private int staleI0, staleJ0, staleI1, staleJ1;
+
+	private float[][] temperature; // the array being relaxed, only set during a step
 
 	HeatSolver2DImpl(int nx, int ny) {
 		super(nx, ny);
+		capacity = new float[nx][ny];
+		west = new float[nx][ny];
+		east = new float[nx][ny];
+		south = new float[nx][ny];
+		north = new float[nx][ny];
+		inverseDiagonal = new float[nx][ny];
+	}
+
+	@Override
+	void invalidateCoefficients(int i0, int j0, int i1, int j1) {
+		if (staleI0 < staleI1) {
+			i0 = Math.min(i0, staleI0);
+			j0 = Math.min(j0, staleJ0);
+			i1 = Math.max(i1, staleI1);
+			j1 = Math.max(j1, staleJ1);
+		}
+		staleI0 = i0;
+		staleJ0 = j0;
+		staleI1 = i1;
+		staleJ1 = j1;
+	}
+
+	// the coefficients of the interior cells from (i0, j0) up to (but not including) (i1, j1)
+	private void computeCoefficients(int i0, int j0, int i1, int j1) {
+		float hx = 0.5f / (deltaX * deltaX);
+		float hy = 0.5f / (deltaY * deltaY);
+		float invTimeStep = 1f / timeStep;
+		float rij;
+		for (int i = Math.max(i0, 1); i < Math.min(i1, nx1); i++) {
+			for (int j = Math.max(j0, 1); j < Math.min(j1, ny1); j++) {
+				// how do we deal with vacuum? if(density[i][j]==0 || density[i-1][j]==0||density[i+1][j]==0||density[i][j-1]==0||density[i][j+1]==0) continue;
+				capacity[i][j] = specificHeat[i][j] * density[i][j] * invTimeStep;
+				rij = conductivity[i][j];
+				west[i][j] = hx * (rij + conductivity[i - 1][j]);
+				east[i][j] = hx * (rij + conductivity[i + 1][j]);
+				south[i][j] = hy * (rij + conductivity[i][j - 1]);
+				north[i][j] = hy * (rij + conductivity[i][j + 1]);
+				inverseDiagonal[i][j] = 1f / (capacity[i][j] + west[i][j] + east[i][j] + south[i][j] + north[i][j]);
+			}
+		}
 	}
 
 	void solve(boolean convective, float[][] t) {
 
 		// Copying a two-dimensional array is very fast: it takes less than 1% compared with the time for the relaxation solver below. Considering this, I chose clarity instead of swapping the arrays.
 		MiscUtil.copy(t0, t);
+		if (coefficientsChanged) {
+			computeCoefficients(1, 1, nx1, ny1);
+			coefficientsChanged = false;
+			staleI0 = staleI1 = 0;
+		} else if (staleI0 < staleI1) { // a coefficient also depends on the conductivities of the four neighbors
+			computeCoefficients(staleI0 - 1, staleJ0 - 1, staleI1 + 1, staleJ1 + 1);
+			staleI0 = staleI1 = 0;
+		}
 
-		float hx = 0.5f / (deltaX * deltaX);
-		float hy = 0.5f / (deltaY * deltaY);
-		float rij, sij, axij, bxij, ayij, byij;
-		float invTimeStep = 1f / timeStep;
+		// the fixed cells are written once per step and skipped by the relaxation
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (!Float.isNaN(tb[i][j]))
+					t[i][j] = tb[i][j];
+			}
+		}
 
-		boolean solveZ = zHeatDiffusivity != 0;
+		temperature = t;
+		RelaxationSweeper.Kernel kernel = (iStart, iEnd, colour, stats) -> relax(iStart, iEnd, colour, stats);
+		float[] stats = new float[2];
 
-		for (int k = 0; k < relaxationSteps; k++) {
+		// five relaxation steps are probably enough for most transient problems because there are numerous previous steps that
+		// can be considered as pre-relaxation steps, especially when changes are slow or small. The controller stops earlier when the residual is small enough.
+		convergence.resetIterations();
+		for (int k = 0;; k++) {
+			sweeper.sweep(nx1, kernel, stats);
+			applyBoundary(t);
+			if (convergence.isConverged(k, stats[0], stats[1]))
+				break;
+		}
+		iterations = convergence.getIterations();
+		temperature = null;
+
+		// use a simple proportional control after relaxation if applicable
+		if (zHeatDiffusivity != 0) {
 			for (int i = 1; i < nx1; i++) {
 				for (int j = 1; j < ny1; j++) {
-					if (Float.isNaN(tb[i][j])) {
-						// how do we deal with vacuum? if(density[i][j]==0 || density[i-1][j]==0||density[i+1][j]==0||density[i][j-1]==0||density[i][j+1]==0) continue;
-						sij = specificHeat[i][j] * density[i][j] * invTimeStep;
-						rij = conductivity[i][j];
-						axij = hx * (rij + conductivity[i - 1][j]);
-						bxij = hx * (rij + conductivity[i + 1][j]);
-						ayij = hy * (rij + conductivity[i][j - 1]);
-						byij = hy * (rij + conductivity[i][j + 1]);
-						t[i][j] = (t0[i][j] * sij + q[i][j] + axij * t[i - 1][j] + bxij * t[i + 1][j] + ayij * t[i][j - 1] + byij * t[i][j + 1]) / (sij + axij + bxij + ayij + byij);
-						// use a simple proportional control only at the last step of relaxation if applicable
-						if (solveZ && k == relaxationSteps - 1) {
-							if (!zHeatDiffusivityOnlyForFluid || (zHeatDiffusivityOnlyForFluid && fluidity[i][j]))
-								t[i][j] -= zHeatDiffusivity * timeStep * (t0[i][j] - backgroundTemperature);
-						}
-					} else {
-						t[i][j] = tb[i][j];
-					}
+					if (Float.isNaN(tb[i][j]) && (!zHeatDiffusivityOnlyForFluid || fluidity.get(i, j)))
+						t[i][j] -= zHeatDiffusivity * timeStep * (t0[i][j] - backgroundTemperature);
 				}
 			}
 			applyBoundary(t);
@@ -65,35 +122,42 @@ class HeatSolver2DImpl extends HeatSolver2D {
 
 	}
 
-	private void advect(float[][] t) {
-		macCormack(t);
-	}
-
-	// MacCormack
-	private void macCormack(float[][] t) {
-
-		float tx = 0.5f * timeStep / deltaX;
-		float ty = 0.5f * timeStep / deltaY;
-		for (int i = 1; i < nx1; i++) {
-			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
-					t0[i][j] = t[i][j] - tx * (u[i + 1][j] * t[i + 1][j] - u[i - 1][j] * t[i - 1][j]) - ty * (v[i][j + 1] * t[i][j + 1] - v[i][j - 1] * t[i][j - 1]);
-				}
-			}
-		}
-
-		applyBoundary(t0);
-
-		for (int i = 1; i < nx1; i++) {
-			for (int j = 1; j < ny1; j++) {
-				if (fluidity[i][j]) {
-					t[i][j] = 0.5f * (t[i][j] + t0[i][j]) - 0.5f * tx * u[i][j] * (t0[i + 1][j] - t0[i - 1][j]) - 0.5f * ty * v[i][j] * (t0[i][j + 1] - t0[i][j - 1]);
+	private void relax(int iStart, int iEnd, int colour, float[] stats) {
+		float[][] t = temperature;
+		float[] ti, tw, te, t0i, qi, si, awi, aei, asi, ani, di, tbi;
+		float b, tij, residual;
+		float maxResidual = stats[0], maxRightHandSide = stats[1];
+		int step = colour == RelaxationSweeper.LEXICOGRAPHIC ? 1 : 2;
+		for (int i = iStart; i < iEnd; i++) {
+			ti = t[i];
+			tw = t[i - 1];
+			te = t[i + 1];
+			t0i = t0[i];
+			qi = q[i];
+			si = capacity[i];
+			awi = west[i];
+			aei = east[i];
+			asi = south[i];
+			ani = north[i];
+			di = inverseDiagonal[i];
+			tbi = tb[i];
+			for (int j = step == 1 || ((i + 1) & 1) == colour ? 1 : 2; j < ny1; j += step) {
+				if (Float.isNaN(tbi[j])) {
+					b = t0i[j] * si[j] + qi[j];
+					tij = (b + awi[j] * tw[j] + aei[j] * te[j] + asi[j] * ti[j - 1] + ani[j] * ti[j + 1]) * di[j];
+					residual = Math.abs(tij - ti[j]) / di[j];
+					if (residual > maxResidual)
+						maxResidual = residual;
+					ti[j] = tij;
+					if (b > maxRightHandSide)
+						maxRightHandSide = b;
+					else if (-b > maxRightHandSide)
+						maxRightHandSide = -b;
 				}
 			}
 		}
-
-		applyBoundary(t);
-
+		stats[0] = maxResidual;
+		stats[1] = maxRightHandSide;
 	}
 
-}
\ No newline at end of file
+}
@@ -121,7 +121,7 @@ public class Heliostat extends Manipulable {
 		float cenx = 0.5f * shape.width + shape.x;
 		float ceny = 0.5f * shape.height + shape.y;
 		Line2D.Float line = new Line2D.Float(cenx - lenx, ceny - leny, cenx + lenx, ceny + leny);
-		float dt = model.getTimeStep();
+		float dt = model.getCurrentTimeStep();
 		float predictedX = p.getRx() + p.getVx() * dt;
 		float predictedY = p.getRy() + p.getVy() * dt;
 		boolean hit = line.intersectsLine(p.getRx(), p.getRy(), predictedX, predictedY);
@@ -1,17 +1,21 @@
 package org.energy2d.model;
 
+import java.awt.Dimension;
 import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
 
 import org.energy2d.event.ManipulationEvent;
 import org.energy2d.event.ManipulationListener;
@@ -38,8 +42,48 @@ public class Model2D {
     public final static byte BUOYANCY_AVERAGE_COLUMN = 1;
     public final static byte GRAVITY_UNIFORM = 0;
     final static byte GRAVITY_CENTRIC = 1;
-
-    private int indexOfStep;
+    public final static byte HEAT_SOLVER_RELAXATION = 0;
+    public final static byte HEAT_SOLVER_MULTIGRID_V = 1;
+    public final static byte HEAT_SOLVER_MULTIGRID_W = 2;
+    public final static byte HEAT_SOLVER_EXPLICIT_EULER = 3;
+    public final static byte HEAT_SOLVER_EXPLICIT_RK2 = 4;
+    public final static byte HEAT_SOLVER_ADI = 5;
+    public final static byte ADVECTION_MACCORMACK = 0;
+    public final static byte ADVECTION_SEMI_LAGRANGIAN = 1;
+    public final static byte ADVECTION_SEMI_LAGRANGIAN_MACCORMACK = 2;
+    public final static byte PRESSURE_SOLVER_RELAXATION = 0;
+    public final static byte PRESSURE_SOLVER_MULTIGRID = 1;
+    public final static byte PRESSURE_SOLVER_CONJUGATE_GRADIENT = 2;
+    public final static byte STREAM_FUNCTION_SOLVER_RELAXATION = 0;
+    public final static byte STREAM_FUNCTION_SOLVER_CONJUGATE_GRADIENT = 1;
+    public final static byte PRECONDITIONER_JACOBI = 0;
+    public final static byte PRECONDITIONER_INCOMPLETE_CHOLESKY = 1;
+    public final static float DEFAULT_CONJUGATE_GRADIENT_TOLERANCE = 0.001f;
+    public final static int DEFAULT_CONJUGATE_GRADIENT_ITERATIONS = 200;
+    public final static float DEFAULT_MULTIGRID_TOLERANCE = 0.001f;
+    public final static int DEFAULT_MULTIGRID_CYCLES = 10;
+    public final static float DEFAULT_RELAXATION_TOLERANCE = 0.00001f;
+    public final static int DEFAULT_RELAXATION_SWEEPS = 5;
+    public final static int DEFAULT_RADIOSITY_SWEEPS = 100;
+    public final static int DEFAULT_GRID_SIZE = 100;
+    public final static float DEFAULT_MINIMUM_TIME_STEP = 0.001f;
+    public final static float DEFAULT_MAXIMUM_TIME_STEP = 0; // no larger than the time step set by the user
+    public final static float DEFAULT_COURANT_NUMBER = 0.5f;
+    public final static int DEFAULT_TIME_STEP_ADAPTATION_INTERVAL = 10;
+    private final static double STEP_ROUNDING = 0.000001; // absorbs the round-off of summing fractions of a time step
+    public final static int MINIMUM_GRID_SIZE = 10;
+    public final static int MAXIMUM_GRID_SIZE = 4000;
+
+    private int indexOfStep; // the elapsed time in units of the time step set by the user, which all the step intervals (tasks, photon emission, radiosity) count
+    private double time; // the elapsed time in seconds, summed over the actual steps
+    private double stepFraction; // the part of a user time step elapsed since indexOfStep last advanced (only nonzero in the adaptive mode)
+    private float timeStep = 0.1f; // the time step set by the user, the solvers may be stepping with a different one in the adaptive mode
+    private boolean adaptiveTimeStep;
+    private float minimumTimeStep = DEFAULT_MINIMUM_TIME_STEP;
+    private float maximumTimeStep = DEFAULT_MAXIMUM_TIME_STEP;
+    private float courantNumber = DEFAULT_COURANT_NUMBER;
+    private int timeStepAdaptationInterval = DEFAULT_TIME_STEP_ADAPTATION_INTERVAL;
+    private int stepsSinceAdaptation;
 
     private float backgroundConductivity = Constants.AIR_THERMAL_CONDUCTIVITY;
     private float backgroundSpecificHeat = Constants.AIR_SPECIFIC_HEAT;
@@ -75,7 +119,7 @@ public class Model2D {
     private float[][] density;
 
     // fluid cell array
-    private boolean[][] fluidity;
+    private FluidityMask fluidity;
 
     private final List<HeatFluxSensor> heatFluxSensors;
     private final List<Anemometer> anemometers;
@@ -87,6 +131,17 @@ public class Model2D {
     private final List<Cloud> clouds;
     private final List<Tree> trees;
     private final List<Fan> fans;
+    private final ShapeRasterizer rasterizer = new ShapeRasterizer();
+    private volatile PartGrid partGrid; // null when the parts have been added, removed or changed in a full refresh, so that it is rebuilt
+
+    // the bounds of the parts and fans when the material arrays were last refreshed in full or around them, for the incremental refresh after an edit
+    private final Map<Manipulable, Rectangle2D> refreshedBounds = new IdentityHashMap<Manipulable, Rectangle2D>();
+    private long refreshedGrid;
+
+    // the cells (at i * ny + j) covered by a running fan, rebuilt after the fans or the materials change
+    private int[] fanCells = new int[0];
+    private int fanCellCount;
+    private boolean fanCellsChanged = true;
     private final List<Heliostat> heliostats;
     private final List<ParticleFeeder> particleFeeders;
 
@@ -94,14 +149,19 @@ public class Model2D {
     private RadiositySolver2D radiositySolver;
     private FluidSolver2D fluidSolver;
     private HeatSolver2D heatSolver;
+    private final RelaxationSweeper sweeper = new RelaxationSweeper(); // shared by the heat and fluid solvers, which run one after another, and the radiosity solver
+    private byte heatSolverType = HEAT_SOLVER_RELAXATION;
+    private byte advectionScheme = ADVECTION_MACCORMACK;
+    private float heatMultigridTolerance = DEFAULT_MULTIGRID_TOLERANCE;
+    private int maximumHeatMultigridCycles = DEFAULT_MULTIGRID_CYCLES;
     private ParticleSolver2D particleSolver;
 
     private boolean sunny;
     private int photonEmissionInterval = 20;
     private int radiosityInterval = 20;
 
-    private int nx = 100;
-    private int ny = 100;
+    private int nx = DEFAULT_GRID_SIZE;
+    private int ny = DEFAULT_GRID_SIZE;
 
     // length in x direction (unit: meter)
     private float lx = 10;
@@ -112,9 +172,14 @@ public class Model2D {
     private float deltaX = lx / nx;
     private float deltaY = ly / ny;
 
-    private boolean running;
+    private volatile boolean running; // read by the threads that edit the model while it runs
     private boolean notifyReset;
 
+    // the stream function is only a diagnostic, so it is computed when asked for, at most once per step, and on the simulation thread while the model runs
+    private volatile float[][] streamFunction;
+    private volatile int streamFunctionStep = -1;
+    private volatile boolean streamFunctionRequested;
+
     // optimization flags
     private boolean hasPartPower;
     private boolean radiative;
@@ -128,17 +193,7 @@ public class Model2D {
 
     public Model2D() {
 
-        t = new float[nx][ny];
-        u = new float[nx][ny];
-        v = new float[nx][ny];
-        q = new float[nx][ny];
-        tb = new float[nx][ny];
-        uWind = new float[nx][ny];
-        vWind = new float[nx][ny];
-        conductivity = new float[nx][ny];
-        specificHeat = new float[nx][ny];
-        density = new float[nx][ny];
-        fluidity = new boolean[nx][ny];
+        allocateFields();
 
         parts = Collections.synchronizedList(new ArrayList<>());
         particles = Collections.synchronizedList(new ArrayList<>());
@@ -155,19 +210,8 @@ public class Model2D {
 
         init();
 
-        heatSolver = new HeatSolver2DImpl(nx, ny);
-        heatSolver.setSpecificHeat(specificHeat);
-        heatSolver.setConductivity(conductivity);
-        heatSolver.setDensity(density);
-        heatSolver.setPower(q);
-        heatSolver.setVelocity(u, v);
-        heatSolver.setTemperatureBoundary(tb);
-        heatSolver.setFluidity(fluidity);
-
-        fluidSolver = new FluidSolver2DImpl(nx, ny);
-        fluidSolver.setFluidity(fluidity);
-        fluidSolver.setTemperature(t);
-        fluidSolver.setWindSpeed(uWind, vWind);
+        heatSolver = createHeatSolver(heatSolverType);
+        fluidSolver = createFluidSolver();
 
         photonSolver = new PhotonSolver2D(lx, ly);
         photonSolver.setPower(q);
@@ -182,6 +226,268 @@ public class Model2D {
 
     }
 
+    private void allocateFields() {
+        t = new float[nx][ny];
+        u = new float[nx][ny];
+        v = new float[nx][ny];
+        q = new float[nx][ny];
+        tb = new float[nx][ny];
+        uWind = new float[nx][ny];
+        vWind = new float[nx][ny];
+        conductivity = new float[nx][ny];
+        specificHeat = new float[nx][ny];
+        density = new float[nx][ny];
+        fluidity = new FluidityMask(nx, ny);
+    }
+
+    private FluidSolver2D createFluidSolver() {
+        FluidSolver2D s = new FluidSolver2DImpl(nx, ny);
+        s.setFluidity(fluidity);
+        s.setTemperature(t);
+        s.setWindSpeed(uWind, vWind);
+        s.sweeper = sweeper;
+        s.advectionScheme = advectionScheme;
+        return s;
+    }
+
+    /**
+     * Change the number of grid cells in the x and y directions. Every field is reallocated, the solvers are recreated with their current settings, and the fields are rebuilt from the parts. The solvers would otherwise keep stepping on a mix of old and new fields, so this is refused while the model is running.
+     *
+     * @throws IllegalStateException
+     *             if the model is running
+     */
+    public void setGridResolution(int nx, int ny) {
+        if (running)
+            throw new IllegalStateException("Cannot change the grid resolution while the simulation is running. Stop it first.");
+        if (nx < MINIMUM_GRID_SIZE || ny < MINIMUM_GRID_SIZE || nx > MAXIMUM_GRID_SIZE || ny > MAXIMUM_GRID_SIZE)
+            throw new IllegalArgumentException("Grid resolution must be between " + MINIMUM_GRID_SIZE + " and " + MAXIMUM_GRID_SIZE + ": " + nx + " x " + ny);
+        if (nx == this.nx && ny == this.ny)
+            return;
+        Dimension oldValue = new Dimension(this.nx, this.ny);
+        this.nx = nx;
+        this.ny = ny;
+        deltaX = lx / nx;
+        deltaY = ly / ny;
+        allocateFields();
+        init();
+
+        replaceHeatSolver(createHeatSolver(heatSolverType));
+
+        FluidSolver2D f = createFluidSolver();
+        f.setBoundary(fluidSolver.getBoundary());
+        f.setGravityType(fluidSolver.getGravityType());
+        f.setPressureSolverType(fluidSolver.getPressureSolverType());
+        f.setStreamFunctionSolverType(fluidSolver.getStreamFunctionSolverType());
+        f.setPreconditioner(fluidSolver.getPreconditioner());
+        f.setConjugateGradientTolerance(fluidSolver.getConjugateGradientTolerance());
+        f.setMaximumConjugateGradientIterations(fluidSolver.getMaximumConjugateGradientIterations());
+        f.setMultigridTolerance(fluidSolver.getMultigridTolerance());
+        f.setMaximumMultigridCycles(fluidSolver.getMaximumMultigridCycles());
+        f.setBuoyancyApproximation(fluidSolver.getBuoyancyApproximation());
+        f.setThermalExpansionCoefficient(fluidSolver.getThermalExpansionCoefficient());
+        f.setBackgroundViscosity(fluidSolver.getViscosity());
+        f.setTimeStep(fluidSolver.getTimeStep());
+        f.viscosityConvergence = fluidSolver.viscosityConvergence;
+        f.pressureConvergence = fluidSolver.pressureConvergence;
+        f.streamConvergence = fluidSolver.streamConvergence;
+        fluidSolver = f;
+
+        photonSolver.setPower(q);
+        particleSolver.setGrid(this);
+        setGridCellSize();
+
+        refreshPowerArray();
+        refreshTemperatureBoundaryArray();
+        refreshMaterialPropertyArrays();
+        setInitialTemperature();
+        notifyPropertyChangeListeners("Grid resolution", oldValue, new Dimension(nx, ny));
+    }
+
+    private HeatSolver2D createHeatSolver(byte type) {
+        HeatSolver2D s;
+        switch (type) {
+            case HEAT_SOLVER_MULTIGRID_V:
+                s = new MultigridHeatSolver2D(nx, ny, MultigridHeatSolver2D.V_CYCLE);
+                break;
+            case HEAT_SOLVER_MULTIGRID_W:
+                s = new MultigridHeatSolver2D(nx, ny, MultigridHeatSolver2D.W_CYCLE);
+                break;
+            case HEAT_SOLVER_EXPLICIT_EULER:
+                s = new ExplicitHeatSolver2D(nx, ny, ExplicitHeatSolver2D.EULER);
+                break;
+            case HEAT_SOLVER_EXPLICIT_RK2:
+                s = new ExplicitHeatSolver2D(nx, ny, ExplicitHeatSolver2D.RK2);
+                break;
+            case HEAT_SOLVER_ADI:
+                s = new AdiHeatSolver2D(nx, ny);
+                break;
+            default:
+                s = new HeatSolver2DImpl(nx, ny);
+        }
+        if (s instanceof MultigridHeatSolver2D) {
+            ((MultigridHeatSolver2D) s).setTolerance(heatMultigridTolerance);
+            ((MultigridHeatSolver2D) s).setMaximumCycles(maximumHeatMultigridCycles);
+        }
+        s.setSpecificHeat(specificHeat);
+        s.setConductivity(conductivity);
+        s.setDensity(density);
+        s.setPower(q);
+        s.setVelocity(u, v);
+        s.setTemperatureBoundary(tb);
+        s.setFluidity(fluidity);
+        s.sweeper = sweeper;
+        s.advectionScheme = advectionScheme;
+        return s;
+    }
+
+    /**
+     * Select the solver for the conduction step: the default implicit Gauss-Seidel relaxation, a geometric multigrid solver (V-cycle or W-cycle) that converges each step in a handful of cycles, an explicit solver (forward Euler or RK2) that sub-steps automatically to stay stable and preserves transient accuracy, or an alternating-direction-implicit line solver.
+     */
+    public void setHeatSolverType(byte heatSolverType) {
+        if (heatSolverType == this.heatSolverType)
+            return;
+        replaceHeatSolver(createHeatSolver(heatSolverType));
+        this.heatSolverType = heatSolverType;
+    }
+
+    private void replaceHeatSolver(HeatSolver2D s) {
+        s.setBoundary(heatSolver.getBoundary());
+        s.setTimeStep(heatSolver.getTimeStep());
+        s.setGridCellSize(deltaX, deltaY);
+        s.backgroundTemperature = heatSolver.backgroundTemperature;
+        s.zHeatDiffusivity = heatSolver.zHeatDiffusivity;
+        s.zHeatDiffusivityOnlyForFluid = heatSolver.zHeatDiffusivityOnlyForFluid;
+        s.convergence = heatSolver.convergence;
+        heatSolver = s;
+    }
+
+    public byte getHeatSolverType() {
+        return heatSolverType;
+    }
+
+    /**
+     * Select how heat and momentum are carried by the flow: the default explicit MacCormack scheme, which is only stable while the flow crosses less than a cell per step, or the unconditionally stable semi-Lagrangian scheme, plain or with the MacCormack error correction that keeps fronts sharper.
+     */
+    public void setAdvectionScheme(byte advectionScheme) {
+        this.advectionScheme = advectionScheme;
+        heatSolver.advectionScheme = advectionScheme;
+        fluidSolver.advectionScheme = advectionScheme;
+    }
+
+    public byte getAdvectionScheme() {
+        return advectionScheme;
+    }
+
+    /**
+     * @return the root-mean-square residual (in degrees) left by the last conduction step, or NaN if the current solver does not track it
+     */
+    public float getHeatSolverResidual() {
+        return heatSolver.getResidualNorm();
+    }
+
+    /**
+     * Set the factor by which the multigrid heat solver must reduce the residual of a step before it stops.
+     */
+    public void setHeatMultigridTolerance(float tolerance) {
+        heatMultigridTolerance = tolerance;
+        if (heatSolver instanceof MultigridHeatSolver2D)
+            ((MultigridHeatSolver2D) heatSolver).setTolerance(tolerance);
+    }
+
+    public float getHeatMultigridTolerance() {
+        return heatMultigridTolerance;
+    }
+
+    /**
+     * Set the maximum number of cycles of the multigrid heat solver per step.
+     */
+    public void setMaximumHeatMultigridCycles(int maximumCycles) {
+        maximumHeatMultigridCycles = maximumCycles;
+        if (heatSolver instanceof MultigridHeatSolver2D)
+            ((MultigridHeatSolver2D) heatSolver).setMaximumCycles(maximumCycles);
+    }
+
+    public int getMaximumHeatMultigridCycles() {
+        return maximumHeatMultigridCycles;
+    }
+
+    /**
+     * Set the tolerance at which the relaxation loops of the heat, fluid and radiosity solvers stop: a sweep ends the loop when no equation has a residual larger than this fraction of the largest magnitude of the right-hand side. Zero always runs the maximum number
+     * of sweeps.
+     */
+    public void setRelaxationTolerance(float tolerance) {
+        heatSolver.convergence.setTolerance(tolerance);
+        fluidSolver.setRelaxationTolerance(tolerance);
+        radiositySolver.getConvergenceController().setTolerance(tolerance);
+    }
+
+    public float getRelaxationTolerance() {
+        return heatSolver.convergence.getTolerance();
+    }
+
+    /**
+     * Set the maximum number of relaxation sweeps per time step for the heat and fluid solvers (by default, DEFAULT_RELAXATION_SWEEPS).
+     */
+    public void setMaximumRelaxationSweeps(int maximumSweeps) {
+        heatSolver.convergence.setMaximumSweeps(maximumSweeps);
+        fluidSolver.setMaximumRelaxationSweeps(maximumSweeps);
+    }
+
+    public int getMaximumRelaxationSweeps() {
+        return heatSolver.convergence.getMaximumSweeps();
+    }
+
+    /**
+     * Set the maximum number of Gauss-Seidel sweeps per radiosity solve (by default, DEFAULT_RADIOSITY_SWEEPS). The radiosity solver runs only every so many steps and starts from the radiation of its last run, so it is meant to converge to the relaxation tolerance
+     * well before this limit, which only bounds the cost when the parts are highly reflective.
+     */
+    public void setMaximumRadiositySweeps(int maximumSweeps) {
+        radiositySolver.getConvergenceController().setMaximumSweeps(maximumSweeps);
+    }
+
+    public int getMaximumRadiositySweeps() {
+        return radiositySolver.getConvergenceController().getMaximumSweeps();
+    }
+
+    /**
+     * Set the number of threads used by the relaxation loops of the heat and fluid solvers. With more than one worker, the loops switch from lexicographic to red-black Gauss-Seidel ordering and split each colour into bands processed by a fork-join pool. The line solves of the ADI solver, the semi-Lagrangian advection and the construction of the radiosity matrices use the same workers. The default is one worker.
+     */
+    public void setWorkerCount(int workerCount) {
+        sweeper.setWorkers(workerCount);
+    }
+
+    public int getWorkerCount() {
+        return sweeper.getWorkers();
+    }
+
+    /**
+     * @return the relaxation sweeps, multigrid cycles or sub-steps the heat solver took in the last step
+     */
+    public int getHeatSolverIterations() {
+        return heatSolver.getIterations();
+    }
+
+    /**
+     * @return the relaxation sweeps (viscous diffusion plus pressure projection) the fluid solver took in the last step
+     */
+    public int getFluidSolverIterations() {
+        return fluidSolver.getIterations();
+    }
+
+    /**
+     * @return the relaxation sweeps the radiosity solver took the last time it ran
+     */
+    public int getRadiositySolverIterations() {
+        return radiositySolver.getConvergenceController().getIterations();
+    }
+
+    /**
+     * @return the largest residual of the radiosity equation left by the last run of the radiosity solver, relative to the largest emission (zero if nothing emits)
+     */
+    public float getRadiositySolverResidual() {
+        return radiositySolver.getResidual();
+    }
+
     public int getNx() {
         return nx;
     }
@@ -261,6 +567,97 @@ public class Model2D {
         return fluidSolver.getGravityType();
     }
 
+    /**
+     * Select the solver for the pressure Poisson equation of the projection step that keeps the flow divergence-free: the default Gauss-Seidel relaxation, a multigrid solver that removes the divergence at all scales, or a preconditioned conjugate-gradient solver over the fluid cells that copes well with complex obstacles. The last two respect the walls of obstacles and the mass flow types at the borders.
+     */
+    public void setPressureSolverType(byte pressureSolverType) {
+        fluidSolver.setPressureSolverType(pressureSolverType);
+    }
+
+    public byte getPressureSolverType() {
+        return fluidSolver.getPressureSolverType();
+    }
+
+    /**
+     * Select the solver for the Poisson equation of the stream function: the default Gauss-Seidel relaxation or a preconditioned conjugate-gradient solver over the fluid cells.
+     */
+    public void setStreamFunctionSolverType(byte streamFunctionSolverType) {
+        fluidSolver.setStreamFunctionSolverType(streamFunctionSolverType);
+    }
+
+    public byte getStreamFunctionSolverType() {
+        return fluidSolver.getStreamFunctionSolverType();
+    }
+
+    /**
+     * Set the preconditioner of the conjugate-gradient solvers: PRECONDITIONER_JACOBI (the diagonal) or PRECONDITIONER_INCOMPLETE_CHOLESKY, which costs more per iteration but needs several times fewer iterations.
+     */
+    public void setPreconditioner(byte preconditioner) {
+        fluidSolver.setPreconditioner(preconditioner);
+    }
+
+    public byte getPreconditioner() {
+        return fluidSolver.getPreconditioner();
+    }
+
+    /**
+     * Set the factor by which the conjugate-gradient solvers must reduce the residual before they stop.
+     */
+    public void setConjugateGradientTolerance(float tolerance) {
+        fluidSolver.setConjugateGradientTolerance(tolerance);
+    }
+
+    public float getConjugateGradientTolerance() {
+        return fluidSolver.getConjugateGradientTolerance();
+    }
+
+    /**
+     * Set the maximum number of iterations of the conjugate-gradient solvers per solve.
+     */
+    public void setMaximumConjugateGradientIterations(int maximumIterations) {
+        fluidSolver.setMaximumConjugateGradientIterations(maximumIterations);
+    }
+
+    public int getMaximumConjugateGradientIterations() {
+        return fluidSolver.getMaximumConjugateGradientIterations();
+    }
+
+    /**
+     * Set the factor by which the multigrid pressure solver must reduce the residual before it stops.
+     */
+    public void setMultigridTolerance(float tolerance) {
+        fluidSolver.setMultigridTolerance(tolerance);
+    }
+
+    public float getMultigridTolerance() {
+        return fluidSolver.getMultigridTolerance();
+    }
+
+    /**
+     * Set the maximum number of cycles of the multigrid pressure solver per solve.
+     */
+    public void setMaximumMultigridCycles(int maximumCycles) {
+        fluidSolver.setMaximumMultigridCycles(maximumCycles);
+    }
+
+    public int getMaximumMultigridCycles() {
+        return fluidSolver.getMaximumMultigridCycles();
+    }
+
+    /**
+     * @return the root-mean-square residual of the pressure equation left by the last step of the multigrid or conjugate-gradient pressure solver, or NaN if the relaxation solver is used
+     */
+    public float getPressureSolverResidual() {
+        return fluidSolver.getPressureSolverResidual();
+    }
+
+    /**
+     * @return the root-mean-square divergence of the velocity field over the fluid cells, a measure of how well mass is conserved (zero for a perfectly incompressible flow)
+     */
+    public float getDivergenceNorm() {
+        return fluidSolver.getDivergenceNorm(u, v);
+    }
+
     public void setThermalExpansionCoefficient(float thermalExpansionCoefficient) {
         fluidSolver.setThermalExpansionCoefficient(thermalExpansionCoefficient);
     }
@@ -846,7 +1243,7 @@ public class Model2D {
      * Since the sensor data are erased, the index of step (and hence the clock) is also reset.
      */
     public void clearSensorData() {
-        indexOfStep = 0;
+        resetClock();
         if (!thermometers.isEmpty()) {
             synchronized (thermometers) {
                 for (Thermometer t : thermometers) {
@@ -1095,6 +1492,7 @@ public class Model2D {
     public void addPart(Part p) {
         if (!parts.contains(p)) {
             parts.add(p);
+            partGrid = null;
             if (p.getPower() != 0)
                 hasPartPower = true;
             if (p.getEmissivity() > 0)
@@ -1105,6 +1503,7 @@ public class Model2D {
     public void addPart(Part p, int index) {
         if (!parts.contains(p)) {
             parts.add(index, p);
+            partGrid = null;
             if (p.getPower() != 0)
                 hasPartPower = true;
             if (p.getEmissivity() > 0)
@@ -1114,6 +1513,7 @@ public class Model2D {
 
     public void removePart(Part p) {
         parts.remove(p);
+        partGrid = null;
         if (!thermostats.isEmpty()) {
             thermostats.removeIf(x -> x.getPowerSource() == p);
         }
@@ -1206,17 +1606,20 @@ public class Model2D {
     public void addFan(Fan f) {
         if (f != null && !fans.contains(f)) {
             fans.add(f);
+            fanCellsChanged = true;
         }
     }
 
     public void addFan(Fan f, int index) {
         if (f != null && !fans.contains(f)) {
             fans.add(index, f);
+            fanCellsChanged = true;
         }
     }
 
     public void removeFan(Fan f) {
         fans.remove(f);
+        fanCellsChanged = true;
     }
 
     public List<Fan> getFans() {
@@ -1344,18 +1747,40 @@ public class Model2D {
     }
 
     List<Segment> getPerimeterSegments(Part part) {
-        List<Segment> list = new ArrayList<>();
-        for (Segment s : radiositySolver.getSegments()) {
-            if (s.getPart() == part)
-                list.add(s);
-        }
-        return list;
+        return radiositySolver.getSegments(part);
+    }
+
+    /** @return the polygon outlined by the perimeter segments of the part */
+    Shape getPerimeterOutline(Part part) {
+        return radiositySolver.getOutline(part);
     }
 
+    /**
+     * Generate the segments of the perimeters of the opaque parts and the matrices of the radiation they exchange. The matrices of the recent meshes are cached in memory, and in the directory of the cache for the meshes saved with saveViewFactorMesh, so going
+     * back to a geometry (by reloading, resetting or undoing) takes them from the cache instead of computing the visibility and the view factors again.
+     */
     public void generateViewFactorMesh() {
         radiositySolver.segmentizePerimeters();
     }
 
+    /**
+     * Keep the matrices of the current view-factor mesh in the directory of the cache, if one is set. Call this when a model is loaded or saved rather than after every edit, so that only the meshes of the models worth reopening reach the disk.
+     */
+    public void saveViewFactorMesh() {
+        radiositySolver.saveMesh();
+    }
+
+    /**
+     * Set the directory in which the view-factor matrices saved with saveViewFactorMesh are kept between sessions, one file per mesh, or null (the default) to keep them only in memory.
+     */
+    public static void setViewFactorCacheDirectory(File directory) {
+        RadiositySolver2D.CACHE.setDirectory(directory);
+    }
+
+    public static File getViewFactorCacheDirectory() {
+        return RadiositySolver2D.CACHE.getDirectory();
+    }
+
     public void setPerimeterStepSize(float size) {
         radiositySolver.setPatchSizePercentage(size);
     }
@@ -1376,134 +1801,328 @@ public class Model2D {
      * the part on the top sets the properties of a cell
      */
     public void refreshMaterialPropertyArrays() {
-        float x, y, windSpeed;
+        partGrid = null; // the shapes may have been changed in any way since the last refresh
+        refreshMaterialPropertyArrays(0, 0, nx, ny);
+        refreshedBounds.clear();
+        synchronized (parts) {
+            for (Part p : parts)
+                refreshedBounds.put(p, p.getShape().getBounds2D());
+        }
+        synchronized (fans) {
+            for (Fan f : fans)
+                refreshedBounds.put(f, f.getShape().getBounds2D());
+        }
+        refreshedGrid = getGridSignature();
+    }
+
+    /**
+     * Refresh the arrays that depend on the given part or fan only in the cells around the bounds it had when the arrays were last refreshed and the bounds it has now. This is for the edits of a single manipulable (moving, resizing or changing the
+     * properties of it), so that dragging it on a big grid doesn't repaint the whole grid each time.
+     */
+    public void refreshArraysAround(Manipulable m) {
+        if (refreshedGrid != getGridSignature()) { // the grid or the background has changed since the last full refresh
+            refreshMaterialPropertyArrays();
+            refreshPowerArray();
+            refreshTemperatureBoundaryArray();
+            return;
+        }
+        Set<Manipulable> present = Collections.newSetFromMap(new IdentityHashMap<Manipulable, Boolean>());
+        synchronized (parts) {
+            present.addAll(parts);
+            PartGrid grid = partGrid;
+            if (grid != null && m instanceof Part)
+                grid.update((Part) m); // only the cells the part covered or covers now
+        }
+        synchronized (fans) {
+            present.addAll(fans);
+        }
+        Rectangle2D bounds = m.getShape().getBounds2D();
+        Rectangle2D previous = refreshedBounds.get(m);
+        if (previous != null)
+            bounds.add(previous);
+        for (Iterator<Map.Entry<Manipulable, Rectangle2D>> it = refreshedBounds.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Manipulable, Rectangle2D> e = it.next();
+            if (!present.contains(e.getKey())) { // a part removed since then (e.g. replaced by an edited copy) leaves its cells behind
+                bounds.add(e.getValue());
+                it.remove();
+            }
+        }
+        // the cells whose grid points fall within the bounds, with a cell of margin for the round-off tolerance
+        int i0 = Math.max(0, (int) Math.floor(bounds.getMinX() / deltaX) - 1);
+        int i1 = Math.min(nx, (int) Math.ceil(bounds.getMaxX() / deltaX) + 2);
+        int j0 = Math.max(0, (int) Math.floor(bounds.getMinY() / deltaY) - 1);
+        int j1 = Math.min(ny, (int) Math.ceil(bounds.getMaxY() / deltaY) + 2);
+        if (i0 < i1 && j0 < j1) {
+            refreshMaterialPropertyArrays(i0, j0, i1, j1);
+            checkPartPower();
+            PartGrid grid = getPartGrid();
+            for (int i = i0; i < i1; i++) {
+                for (int j = j0; j < j1; j++) {
+                    q[i][j] = getPower(grid, i * ny + j, i, j);
+                    tb[i][j] = getBoundaryTemperature(grid, i * ny + j);
+                }
+            }
+            heatSolver.invalidateTemperatureBoundary();
+        }
+        if (present.contains(m))
+            refreshedBounds.put(m, m.getShape().getBounds2D());
+    }
+
+    // what the arrays depend on besides the parts and the fans, a change of which requires a full refresh
+    private long getGridSignature() {
+        long h = nx;
+        h = h * 31 + ny;
+        h = h * 31 + Float.floatToIntBits(deltaX);
+        h = h * 31 + Float.floatToIntBits(deltaY);
+        h = h * 31 + Float.floatToIntBits(backgroundConductivity);
+        h = h * 31 + Float.floatToIntBits(backgroundSpecificHeat);
+        h = h * 31 + Float.floatToIntBits(backgroundDensity);
+        return h * 31 + (convective ? 1 : 0);
+    }
+
+    // refresh the cells from (i0, j0) up to (but not including) (i1, j1)
+    private void refreshMaterialPropertyArrays(int i0, int j0, int i1, int j1) {
         boolean initial = indexOfStep == 0;
-        maximumHeatCapacity = backgroundDensity * backgroundSpecificHeat;
-        float heatCapacity = 0;
-        for (int i = 0; i < nx; i++) {
-            x = i * deltaX;
-            for (int j = 0; j < ny; j++) {
-                y = j * deltaY;
-                conductivity[i][j] = backgroundConductivity;
-                specificHeat[i][j] = backgroundSpecificHeat;
-                density[i][j] = backgroundDensity;
-                fluidity[i][j] = true;
-                uWind[i][j] = vWind[i][j] = 0;
-                synchronized (parts) {
-                    ListIterator<Part> li = parts.listIterator(parts.size());
-                    while (li.hasPrevious()) {
-                        Part p = li.previous();
-                        // FIXME: for some reason, the fluid solver doesn't like the way we treat round-off error on the grid.
-                        // So if the model is convective, revert to using the original contains(...) method for setting the properties on the grid.
-                        if (contains(p.getShape(), x, y, convective)) {
-                            conductivity[i][j] = p.getThermalConductivity();
-                            specificHeat[i][j] = p.getSpecificHeat();
-                            density[i][j] = p.getDensity();
-                            fluidity[i][j] = false;
-                            break;
-                        }
+        boolean rescan = maximumHeatCapacity < 0 || (i0 == 0 && j0 == 0 && i1 == nx && j1 == ny);
+        boolean heldMaximum = !rescan && getMaximumHeatCapacity(i0, j0, i1, j1) >= maximumHeatCapacity;
+        for (int i = i0; i < i1; i++) {
+            Arrays.fill(conductivity[i], j0, j1, backgroundConductivity);
+            Arrays.fill(specificHeat[i], j0, j1, backgroundSpecificHeat);
+            Arrays.fill(density[i], j0, j1, backgroundDensity);
+            Arrays.fill(uWind[i], j0, j1, 0);
+            Arrays.fill(vWind[i], j0, j1, 0);
+            for (int j = j0; j < j1; j++)
+                fluidity.set(i, j, true);
+        }
+        CellSpans spans;
+        int i, j;
+        synchronized (parts) {
+            // the parts are painted from the bottom up, so the part on the top ends up owning a cell
+            // FIXME: for some reason, the fluid solver doesn't like the way we treat round-off error on the grid.
+            // So if the model is convective, revert to using the original contains(...) method for setting the properties on the grid.
+            for (Part p : parts) {
+                spans = getCells(p.getShape(), convective);
+                for (int k = 0; k < spans.count; k++) {
+                    j = spans.rows[k];
+                    if (j < j0 || j >= j1)
+                        continue;
+                    for (i = Math.max(i0, spans.starts[k]); i < Math.min(i1, spans.ends[k]); i++) {
+                        conductivity[i][j] = p.getThermalConductivity();
+                        specificHeat[i][j] = p.getSpecificHeat();
+                        density[i][j] = p.getDensity();
+                        fluidity.set(i, j, false);
                     }
                 }
-                // The rest properties of parts should use the new contains(...) method, as is in any other place
-                synchronized (parts) {
-                    ListIterator<Part> li = parts.listIterator(parts.size());
-                    while (li.hasPrevious()) {
-                        Part p = li.previous();
-                        if (contains(p.getShape(), x, y, false)) {
-                            if (!initial && p.getConstantTemperature())
-                                t[i][j] = p.getTemperature();
-                            if ((windSpeed = p.getWindSpeed()) != 0) { // parts used to support wind speed, we now prefer using fans
-                                uWind[i][j] = (float) (windSpeed * Math.cos(p.getWindAngle()));
-                                vWind[i][j] = (float) (windSpeed * Math.sin(p.getWindAngle()));
-                            }
-                            break;
-                        }
+            }
+            // The rest properties of parts should use the new contains(...) method, as is in any other place
+            PartGrid grid = getPartGrid();
+            float windSpeed;
+            Part p;
+            for (i = i0; i < i1; i++) {
+                for (j = j0; j < j1; j++) {
+                    if ((p = grid.getOwner(i, j)) == null)
+                        continue;
+                    if (!initial && p.getConstantTemperature())
+                        t[i][j] = p.getTemperature();
+                    if ((windSpeed = p.getWindSpeed()) != 0) { // parts used to support wind speed, we now prefer using fans
+                        uWind[i][j] = (float) (windSpeed * Math.cos(p.getWindAngle()));
+                        vWind[i][j] = (float) (windSpeed * Math.sin(p.getWindAngle()));
                     }
                 }
-                synchronized (fans) {
-                    for (Fan f : fans) {
-                        if (contains(f.getShape(), x, y, false)) {
-                            if ((windSpeed = f.getSpeed()) != 0) {
-                                uWind[i][j] = (float) (windSpeed * Math.cos(f.getAngle()));
-                                vWind[i][j] = (float) (windSpeed * Math.sin(f.getAngle()));
-                            }
-                            break;
-                        }
-                    }
+            }
+        }
+        synchronized (fans) {
+            int h = j1 - j0;
+            int[] owners = new int[(i1 - i0) * h];
+            paintOwners(fans, owners, true, i0, j0, i1, j1); // the first fan that covers a cell blows there
+            float windSpeed;
+            for (int m = 0; m < owners.length; m++) {
+                if (owners[m] < 0)
+                    continue;
+                Fan f = fans.get(owners[m]);
+                if ((windSpeed = f.getSpeed()) != 0) {
+                    i = i0 + m / h;
+                    j = j0 + m % h;
+                    uWind[i][j] = (float) (windSpeed * Math.cos(f.getAngle()));
+                    vWind[i][j] = (float) (windSpeed * Math.sin(f.getAngle()));
                 }
-                heatCapacity = specificHeat[i][j] * density[i][j];
-                if (maximumHeatCapacity < heatCapacity)
-                    maximumHeatCapacity = heatCapacity;
             }
         }
+        // only the cells in the box have changed, so the whole grid is scanned again only if the box held the maximum and it may have gone down
+        float heatCapacity = getMaximumHeatCapacity(i0, j0, i1, j1);
+        if (rescan || (heldMaximum && heatCapacity < maximumHeatCapacity)) {
+            if (i1 - i0 < nx || j1 - j0 < ny)
+                heatCapacity = getMaximumHeatCapacity(0, 0, nx, ny);
+            maximumHeatCapacity = Math.max(backgroundDensity * backgroundSpecificHeat, heatCapacity);
+        } else if (heatCapacity > maximumHeatCapacity) {
+            maximumHeatCapacity = heatCapacity;
+        }
+        if (i0 == 0 && j0 == 0 && i1 == nx && j1 == ny)
+            heatSolver.invalidateCoefficients();
+        else
+            heatSolver.invalidateCoefficients(i0, j0, i1, j1);
+        fluidSolver.invalidateObstacles();
+        fanCellsChanged = true;
+        streamFunctionStep = -1;
         if (initial) {
-            setInitialTemperature();
-            setInitialVelocity();
+            setInitialTemperature(i0, j0, i1, j1);
+            setInitialVelocity(i0, j0, i1, j1);
+        }
+    }
+
+    // the maximum heat capacity of the cells from (i0, j0) up to (but not including) (i1, j1)
+    private float getMaximumHeatCapacity(int i0, int j0, int i1, int j1) {
+        float max = 0, heatCapacity;
+        for (int i = i0; i < i1; i++) {
+            for (int j = j0; j < j1; j++) {
+                heatCapacity = specificHeat[i][j] * density[i][j];
+                if (max < heatCapacity)
+                    max = heatCapacity;
+            }
+        }
+        return max;
+    }
+
+    // owners[(i - i0) * (j1 - j0) + j - j0] = the index of the last (or with reverse, the first) manipulable in the list that covers cell (i, j), or -1
+    private void paintOwners(List<? extends Manipulable> list, int[] owners, boolean reverse, int i0, int j0, int i1, int j1) {
+        Arrays.fill(owners, -1);
+        int n = list.size();
+        int h = j1 - j0;
+        CellSpans spans;
+        int index, j;
+        for (int k = 0; k < n; k++) {
+            index = reverse ? n - 1 - k : k;
+            spans = getCells(list.get(index).getShape(), false);
+            for (int r = 0; r < spans.count; r++) {
+                j = spans.rows[r];
+                if (j < j0 || j >= j1)
+                    continue;
+                for (int i = Math.max(i0, spans.starts[r]); i < Math.min(i1, spans.ends[r]); i++)
+                    owners[(i - i0) * h + j - j0] = index;
+            }
         }
     }
 
     public void refreshPowerArray() {
         checkPartPower();
-        float x, y, power;
-        int count;
+        for (int i = 0; i < nx; i++)
+            Arrays.fill(q[i], 0);
+        if (!hasPartPower)
+            return;
+        PartGrid grid = getPartGrid();
+        int m = 0;
         for (int i = 0; i < nx; i++) {
-            x = i * deltaX;
-            for (int j = 0; j < ny; j++) {
-                y = j * deltaY;
-                q[i][j] = 0;
-                if (hasPartPower) {
-                    count = 0;
-                    synchronized (parts) {
-                        for (Part p : parts) {
-                            if (p.getPower() != 0 && p.getPowerSwitch() && contains(p.getShape(), x, y, false)) {
-                                power = p.getPower();
-                                if (p.getThermistorTemperatureCoefficient() != 0) {
-                                    power *= 1f + p.getThermistorTemperatureCoefficient() * (t[i][j] - p.getThermistorReferenceTemperature());
-                                }
-                                q[i][j] += power;
-                                count++;
-                            }
-                        }
-                    }
-                    if (count > 0)
-                        q[i][j] /= count;
-                }
+            for (int j = 0; j < ny; j++, m++) {
+                if (grid.getOverlapCount(m) > 0)
+                    q[i][j] = getPower(grid, m, i, j);
             }
         }
     }
 
+    // only the power of thermistors depends on the temperature, so only their cells need an update between the switches of the thermostats
+    private void refreshThermistorPower() {
+        PartGrid grid = getPartGrid();
+        CellSpans spans;
+        int j;
+        for (int n = grid.getPartCount() - 1; n >= 0; n--) {
+            Part p = grid.getPart(n);
+            if (p.getThermistorTemperatureCoefficient() == 0 || p.getPower() == 0 || !p.getPowerSwitch())
+                continue;
+            spans = getCells(p.getShape(), false);
+            for (int k = 0; k < spans.count; k++) {
+                j = spans.rows[k];
+                for (int i = spans.starts[k]; i < spans.ends[k]; i++)
+                    q[i][j] = getPower(grid, i * ny + j, i, j);
+            }
+        }
+    }
+
+    // the power density at cell m = i * ny + j, averaged over the powered parts that overlap there
+    private float getPower(PartGrid grid, int m, int i, int j) {
+        float sum = 0, power;
+        int count = 0;
+        for (int k = 0, n = grid.getOverlapCount(m); k < n; k++) {
+            Part p = grid.getOverlap(m, k);
+            if (p.getPower() == 0 || !p.getPowerSwitch())
+                continue;
+            power = p.getPower();
+            if (p.getThermistorTemperatureCoefficient() != 0) {
+                power *= 1f + p.getThermistorTemperatureCoefficient() * (t[i][j] - p.getThermistorReferenceTemperature());
+            }
+            sum += power;
+            count++;
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
     public void refreshTemperatureBoundaryArray() {
-        float x, y;
-        int count;
+        PartGrid grid = getPartGrid();
+        int m = 0;
         for (int i = 0; i < nx; i++) {
-            x = i * deltaX;
-            for (int j = 0; j < ny; j++) {
-                y = j * deltaY;
-                tb[i][j] = 0;
-                count = 0;
-                synchronized (parts) {
-                    for (Part p : parts) {
-                        if (p.getConstantTemperature() && contains(p.getShape(), x, y, false)) {
-                            tb[i][j] += p.getTemperature();
-                            count++;
-                        }
-                    }
-                }
-                if (count > 0) {
-                    tb[i][j] /= count;
-                } else {
-                    tb[i][j] = Float.NaN;
-                }
+            for (int j = 0; j < ny; j++, m++)
+                tb[i][j] = getBoundaryTemperature(grid, m);
+        }
+        heatSolver.invalidateTemperatureBoundary();
+    }
+
+    // the temperature at cell m = i * ny + j, averaged over the parts at a constant temperature that overlap there, or NaN if there is none
+    private float getBoundaryTemperature(PartGrid grid, int m) {
+        float sum = 0;
+        int count = 0;
+        for (int k = 0, n = grid.getOverlapCount(m); k < n; k++) {
+            Part p = grid.getOverlap(m, k);
+            if (p.getConstantTemperature()) {
+                sum += p.getTemperature();
+                count++;
             }
         }
+        return count > 0 ? sum / count : Float.NaN;
+    }
+
+    RelaxationSweeper getSweeper() {
+        return sweeper;
+    }
+
+    /** @return the index of which parts cover which cells, rebuilt first if it has been invalidated or the grid has changed */
+    PartGrid getPartGrid() {
+        PartGrid grid = partGrid;
+        if (grid == null || grid.nx != nx || grid.ny != ny || grid.deltaX != deltaX || grid.deltaY != deltaY || grid.getPartCount() != parts.size()) {
+            synchronized (parts) {
+                grid = new PartGrid(parts, rasterizer, nx, ny, deltaX, deltaY);
+                partGrid = grid;
+            }
+        }
+        return grid;
+    }
+
+    /** @return the topmost part that covers the grid point nearest to (x, y), or null if there is none */
+    public Part getPartAt(float x, float y) {
+        int i = Math.max(0, Math.min(nx - 1, Math.round(x / deltaX)));
+        int j = Math.max(0, Math.min(ny - 1, Math.round(y / deltaY)));
+        return getPartGrid().getOwner(i, j);
+    }
+
+    /** @return all the parts that cover the grid point nearest to (x, y), from the bottom to the top */
+    public List<Part> getPartsAt(float x, float y) {
+        int i = Math.max(0, Math.min(nx - 1, Math.round(x / deltaX)));
+        int j = Math.max(0, Math.min(ny - 1, Math.round(y / deltaY)));
+        PartGrid grid = getPartGrid();
+        int m = i * ny + j;
+        int n = grid.getOverlapCount(m);
+        List<Part> list = new ArrayList<Part>(n);
+        for (int k = 0; k < n; k++)
+            list.add(grid.getOverlap(m, k));
+        return list;
+    }
+
+    // the cells whose grid points fall within the shape, as decided by contains(shape, x, y, tolerateRoundOffError)
+    private CellSpans getCells(Shape shape, boolean tolerateRoundOffError) {
+        return rasterizer.rasterize(shape, nx, ny, deltaX, deltaY, tolerateRoundOffError);
     }
 
     // avoid round-off error in detecting if a point falls within a shape
     private boolean contains(Shape shape, float x, float y, boolean tolerateRoundOffError) {
-        if (tolerateRoundOffError)
-            return shape.contains(x, y);
-        float tol = 0.001f;
-        return shape.contains(x, y) || shape.contains(x - deltaX * tol, y) || shape.contains(x + deltaX * tol, y) || shape.contains(x, y - deltaY * tol) || shape.contains(x, y + deltaY * tol);
+        return ShapeRasterizer.contains(shape, x, y, deltaX, deltaY, tolerateRoundOffError);
     }
 
     /**
@@ -1525,16 +2144,13 @@ public class Model2D {
     float getThermalEnergy(Part p) {
         if (p == null)
             return 0;
-        float x, y;
         float energy = 0;
-        for (int i = 0; i < nx; i++) {
-            x = i * deltaX;
-            for (int j = 0; j < ny; j++) {
-                y = j * deltaY;
-                if (contains(p.getShape(), x, y, false)) { // no overlap of parts will be allowed
-                    energy += t[i][j] * density[i][j] * specificHeat[i][j];
-                }
-            }
+        CellSpans spans = getCells(p.getShape(), false); // no overlap of parts will be allowed
+        int j;
+        for (int k = 0; k < spans.count; k++) {
+            j = spans.rows[k];
+            for (int i = spans.starts[k]; i < spans.ends[k]; i++)
+                energy += t[i][j] * density[i][j] * specificHeat[i][j];
         }
         return energy * deltaX * deltaY;
     }
@@ -1563,6 +2179,7 @@ public class Model2D {
 
     public void clear() {
         parts.clear();
+        partGrid = null;
         particles.clear();
         particleFeeders.clear();
         photons.clear();
@@ -1573,6 +2190,7 @@ public class Model2D {
         clouds.clear();
         trees.clear();
         fans.clear();
+        fanCellsChanged = true;
         heliostats.clear();
         maximumHeatCapacity = -1;
     }
@@ -1595,9 +2213,13 @@ public class Model2D {
     }
 
     private void setInitialVelocity() {
-        for (int i = 0; i < nx; i++) {
-            for (int j = 0; j < ny; j++) {
-                if (fluidity[i][j]) {
+        setInitialVelocity(0, 0, nx, ny);
+    }
+
+    private void setInitialVelocity(int i0, int j0, int i1, int j1) {
+        for (int i = i0; i < i1; i++) {
+            for (int j = j0; j < j1; j++) {
+                if (fluidity.get(i, j)) {
                     u[i][j] = v[i][j] = 0;
                 } else {
                     u[i][j] = uWind[i][j];
@@ -1608,31 +2230,29 @@ public class Model2D {
     }
 
     public void setInitialTemperature() {
+        setInitialTemperature(0, 0, nx, ny);
+    }
+
+    private void setInitialTemperature(int i0, int j0, int i1, int j1) {
         if (parts == null || parts.isEmpty()) {
-            for (int i = 0; i < nx; i++) {
-                for (int j = 0; j < ny; j++) {
+            for (int i = i0; i < i1; i++) {
+                for (int j = j0; j < j1; j++) {
                     t[i][j] = backgroundTemperature;
                 }
             }
         } else {
-            float x, y;
-            int count;
-            for (int i = 0; i < nx; i++) {
-                x = i * deltaX;
-                for (int j = 0; j < ny; j++) {
-                    y = j * deltaY;
-                    count = 0;
-                    t[i][j] = 0;
-                    synchronized (parts) {
-                        for (Part p : parts) { // a cell gets the average temperature from the overlapping parts
-                            if (contains(p.getShape(), x, y, false)) {
-                                count++;
-                                t[i][j] += p.getTemperature();
-                            }
-                        }
-                    }
-                    if (count > 0) {
-                        t[i][j] /= count;
+            PartGrid grid = getPartGrid();
+            float sum;
+            int m, n;
+            for (int i = i0; i < i1; i++) {
+                for (int j = j0; j < j1; j++) { // a cell gets the average temperature from the overlapping parts
+                    m = i * ny + j;
+                    n = grid.getOverlapCount(m);
+                    if (n > 0) {
+                        sum = 0;
+                        for (int k = 0; k < n; k++)
+                            sum += grid.getOverlap(m, k).getTemperature();
+                        t[i][j] = sum / n;
                     } else {
                         t[i][j] = backgroundTemperature;
                     }
@@ -1659,7 +2279,7 @@ public class Model2D {
                     tasks.run();
             }
             if (notifyReset) {
-                indexOfStep = 0;
+                resetClock();
                 reallyReset();
                 notifyReset = false;
                 // call view.repaint() to get rid of the residual pixels that are still calculated in nextStep()
@@ -1688,7 +2308,7 @@ public class Model2D {
             reallyReset();
         }
         running = false;
-        indexOfStep = 0;
+        resetClock();
     }
 
     private void reallyReset() {
@@ -1750,9 +2370,14 @@ public class Model2D {
 
     private void nextStep() {
 
+        if (adaptiveTimeStep && stepsSinceAdaptation++ % timeStepAdaptationInterval == 0)
+            adaptTimeStep();
+        float dt = heatSolver.getTimeStep();
+        int endOfStep = indexOfStep + (int) (stepFraction + dt / timeStep + STEP_ROUNDING); // the index of step after this step
+
         // photon simulation of solar inputs
         if (sunny) {
-            if (indexOfStep % photonEmissionInterval == 0) {
+            if (isDue(photonEmissionInterval, endOfStep)) {
                 photonSolver.sunShine(photons, parts);
                 refreshPowerArray();
             }
@@ -1761,7 +2386,7 @@ public class Model2D {
 
         // radiation solver
         if (radiative) {
-            if (indexOfStep % radiosityInterval == 0) {
+            if (isDue(radiosityInterval, endOfStep)) {
                 refreshPowerArray();
                 radiositySolver.solve();
             }
@@ -1783,7 +2408,7 @@ public class Model2D {
         if (!particleFeeders.isEmpty()) {
             synchronized (particleFeeders) {
                 for (ParticleFeeder pf : particleFeeders) {
-                    if (indexOfStep % Math.round(pf.getPeriod() / getTimeStep()) == 0) {
+                    if (isDue(Math.round(pf.getPeriod() / timeStep), endOfStep)) {
                         pf.feed(this);
                     }
                 }
@@ -1794,52 +2419,190 @@ public class Model2D {
         if (!clouds.isEmpty()) {
             synchronized (clouds) {
                 for (Cloud c : clouds)
-                    c.move(heatSolver.getTimeStep(), lx);
+                    c.move(dt, lx);
             }
         }
 
-        indexOfStep++;
+        time += dt;
+        stepFraction += dt / timeStep;
+        int elapsed = (int) (stepFraction + STEP_ROUNDING);
+        indexOfStep += elapsed;
+        stepFraction = Math.max(0, stepFraction - elapsed);
+
+        if (streamFunctionRequested) {
+            streamFunctionRequested = false;
+            calculateStreamFunction();
+        }
 
     }
 
+    // true if a multiple of the interval falls within [indexOfStep, endOfStep), which in the fixed mode means indexOfStep % interval == 0
+    private boolean isDue(int interval, int endOfStep) {
+        if (interval <= 0)
+            return true;
+        return endOfStep > indexOfStep && (endOfStep - 1) / interval * interval >= indexOfStep;
+    }
+
+    private void resetClock() {
+        indexOfStep = 0;
+        time = 0;
+        stepFraction = 0;
+        stepsSinceAdaptation = 0;
+        streamFunctionStep = -1;
+    }
+
+    /*
+     * Choose the step for the next timeStepAdaptationInterval steps: the largest that is stable, within the bounds. Only the explicit heat solver has to keep the conduction below a unit Fourier number and only the MacCormack advection has to keep the flow from
+     * crossing more than courantNumber cells per step, as the implicit heat solvers and the semi-Lagrangian advection are stable at any step. Being stable is not being accurate, though: the numeric diffusion of the implicit solvers grows with the step, so unless the user
+     * sets a maximum, the step never exceeds the one the user chose. The step grows by at most a fifth at a time, so a step that has just been cut does not jump back in one go, but shrinks at once.
+     */
+    private void adaptTimeStep() {
+        float limit = heatSolver instanceof ExplicitHeatSolver2D ? heatSolver.getDiffusionTimeStepLimit() : Float.MAX_VALUE;
+        if (convective && advectionScheme == ADVECTION_MACCORMACK) {
+            float uMax = 0, vMax = 0;
+            for (int i = 1; i < nx - 1; i++) {
+                for (int j = 1; j < ny - 1; j++) {
+                    if (fluidity.get(i, j)) {
+                        if (Math.abs(u[i][j]) > uMax)
+                            uMax = Math.abs(u[i][j]);
+                        if (Math.abs(v[i][j]) > vMax)
+                            vMax = Math.abs(v[i][j]);
+                    }
+                }
+            }
+            if (uMax > 0)
+                limit = Math.min(limit, courantNumber * deltaX / uMax);
+            if (vMax > 0)
+                limit = Math.min(limit, courantNumber * deltaY / vMax);
+        }
+        float dt = Math.min(limit, 1.2f * heatSolver.getTimeStep());
+        dt = Math.max(minimumTimeStep, Math.min(maximumTimeStep > 0 ? maximumTimeStep : timeStep, dt));
+        setCurrentTimeStep(dt);
+    }
+
+    private void setCurrentTimeStep(float dt) {
+        heatSolver.setTimeStep(dt);
+        fluidSolver.setTimeStep(dt);
+    }
+
     private void applyFans() {
-        float x, y;
+        if (fanCellsChanged)
+            refreshFanCells();
+        int i, j;
+        for (int k = 0; k < fanCellCount; k++) {
+            i = fanCells[k] / ny;
+            j = fanCells[k] % ny;
+            u[i][j] = uWind[i][j];
+            v[i][j] = vWind[i][j];
+        }
+    }
+
+    private void refreshFanCells() {
+        fanCellsChanged = false;
+        fanCellCount = 0;
+        boolean[] covered = new boolean[nx * ny];
+        CellSpans spans;
+        int j;
         synchronized (fans) {
-            for (int i = 0; i < nx; i++) {
-                x = i * deltaX;
-                for (int j = 0; j < ny; j++) {
-                    y = j * deltaY;
-                    for (Fan f : fans) {
-                        if (contains(f.getShape(), x, y, false)) {
-                            if (f.getSpeed() != 0) {
-                                u[i][j] = uWind[i][j];
-                                v[i][j] = vWind[i][j];
-                            }
-                        }
-                    }
+            for (Fan f : fans) {
+                if (f.getSpeed() == 0)
+                    continue;
+                spans = getCells(f.getShape(), false);
+                for (int k = 0; k < spans.count; k++) {
+                    j = spans.rows[k];
+                    for (int i = spans.starts[k]; i < spans.ends[k]; i++)
+                        covered[i * ny + j] = true;
                 }
             }
         }
+        for (int m = 0; m < covered.length; m++) {
+            if (covered[m]) {
+                if (fanCellCount == fanCells.length)
+                    fanCells = Arrays.copyOf(fanCells, Math.max(64, fanCellCount * 2));
+                fanCells[fanCellCount++] = m;
+            }
+        }
     }
 
     public float getTime() {
-        return indexOfStep * heatSolver.getTimeStep();
+        return (float) time;
     }
 
     public int getIndexOfStep() {
         return indexOfStep;
     }
 
+    /**
+     * Set the time step. In the adaptive mode, this is the unit in which the step intervals (of the tasks, the photon emission and the radiosity solver) are counted and the step the solvers start from.
+     */
     public void setTimeStep(float timeStep) {
-        notifyPropertyChangeListeners("Time step", getTimeStep(), timeStep);
-        heatSolver.setTimeStep(timeStep);
-        fluidSolver.setTimeStep(timeStep);
+        notifyPropertyChangeListeners("Time step", this.timeStep, timeStep);
+        this.timeStep = timeStep;
+        setCurrentTimeStep(timeStep);
+        stepsSinceAdaptation = 0;
     }
 
     public float getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * @return the time step the solvers are taking, which differs from getTimeStep() only in the adaptive mode
+     */
+    public float getCurrentTimeStep() {
         return heatSolver.getTimeStep();
     }
 
+    /**
+     * In the adaptive mode, the time step is recomputed every few steps from the largest velocity (so that the flow crosses no more than a given fraction of a cell per step) and from the conduction limit of the materials, within the bounds set by the user. The clock, the sensor
+     * time stamps and all the step intervals follow the elapsed time, so they keep their meaning whatever the solvers step with.
+     */
+    public void setAdaptiveTimeStep(boolean adaptiveTimeStep) {
+        this.adaptiveTimeStep = adaptiveTimeStep;
+        stepsSinceAdaptation = 0;
+        if (!adaptiveTimeStep)
+            setCurrentTimeStep(timeStep);
+    }
+
+    public boolean isAdaptiveTimeStep() {
+        return adaptiveTimeStep;
+    }
+
+    public void setMinimumTimeStep(float minimumTimeStep) {
+        this.minimumTimeStep = minimumTimeStep;
+    }
+
+    public float getMinimumTimeStep() {
+        return minimumTimeStep;
+    }
+
+    /** the largest step the solvers may take in the adaptive mode, or zero (the default) for the time step set by the user, so that adapting only ever cuts the step */
+    public void setMaximumTimeStep(float maximumTimeStep) {
+        this.maximumTimeStep = maximumTimeStep;
+    }
+
+    public float getMaximumTimeStep() {
+        return maximumTimeStep;
+    }
+
+    /** the largest fraction of a cell the flow may cross in a step in the adaptive mode (with the MacCormack advection, the semi-Lagrangian schemes need no limit) */
+    public void setCourantNumber(float courantNumber) {
+        this.courantNumber = courantNumber;
+    }
+
+    public float getCourantNumber() {
+        return courantNumber;
+    }
+
+    /** the number of steps between two adjustments of the time step in the adaptive mode */
+    public void setTimeStepAdaptationInterval(int timeStepAdaptationInterval) {
+        this.timeStepAdaptationInterval = Math.max(1, timeStepAdaptationInterval);
+    }
+
+    public int getTimeStepAdaptationInterval() {
+        return timeStepAdaptationInterval;
+    }
+
     void changePowerAt(float x, float y, float increment) {
         int i = Math.min(t.length - 1, Math.round(x / deltaX));
         if (i < 0)
@@ -2086,7 +2849,7 @@ public class Model2D {
             j = 1;
         else if (j > ny - 2)
             j = ny - 2;
-        if (!fluidity[i][j])
+        if (!fluidity.get(i, j))
             return 0;
         float du_dy = (u[i][j + 1] - u[i][j - 1]) / deltaY;
         float dv_dx = (v[i + 1][j] - v[i - 1][j]) / deltaX;
@@ -2118,8 +2881,33 @@ public class Model2D {
         }
     }
 
+    /**
+     * Return the stream function of the current step. All the calls within a step share the same result. While the model runs, the calculation is left to the simulation thread at the end of the next step, and this returns the result of the last step that has one (zero before the
+     * first), so a caller on the event dispatch thread never waits for the Poisson solve.
+     */
     public float[][] getStreamFunction() {
-        return fluidSolver.getStreamFunction(u, v);
+        float[][] s = streamFunction;
+        boolean sized = s != null && s.length == nx && s[0].length == ny;
+        if (!sized || streamFunctionStep != indexOfStep) {
+            if (running) {
+                streamFunctionRequested = true;
+                if (!sized)
+                    streamFunction = new float[nx][ny];
+            } else {
+                calculateStreamFunction();
+            }
+        }
+        return streamFunction;
+    }
+
+    // publish a new copy each time and never write to it again, as a reader (say, the view painting the streamlines) may hold on to a result for as long as it likes. It costs an allocation per request, which is small next to the Poisson solve.
+    private void calculateStreamFunction() {
+        float[][] s = fluidSolver.getStreamFunction(u, v);
+        float[][] copy = new float[nx][ny];
+        for (int i = 0; i < nx; i++)
+            System.arraycopy(s[i], 0, copy[i], 0, ny);
+        streamFunction = copy;
+        streamFunctionStep = indexOfStep;
     }
 
     public float[][] getSpecificHeat() {
@@ -2238,14 +3026,16 @@ public class Model2D {
             if (x.onoff(this))
                 refresh = true;
         }
+        if (refresh) {
+            refreshPowerArray();
+            return;
+        }
         for (Part p : parts) {
             if (p.getThermistorTemperatureCoefficient() != 0) {
-                refresh = true;
+                refreshThermistorPower();
                 break;
             }
         }
-        if (refresh)
-            refreshPowerArray();
     }
 
     public void addPropertyChangeListener(PropertyChangeListener listener) {
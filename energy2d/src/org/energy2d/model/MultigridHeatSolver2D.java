@@ -0,0 +1,468 @@
+package org.energy2d.model;
+
+import java.util.Arrays;
+
+import org.energy2d.util.MiscUtil;
+
+/**
+ * A geometric multigrid solver for the implicit conduction step. Gauss-Seidel sweeps only damp the high-frequency components of the error, so the low-frequency components that dominate near-steady models take a very large number of steps to settle. Here the residual equation
+ * is transferred to a hierarchy of coarser grids on which the conductivity, the heat capacity and the constant-temperature mask are restricted, smoothed there and the correction interpolated back.
+ *
+ * Each coarse cell aggregates two by two fine cells (the border cells of each level are kept as they are, so the border of a coarse grid always sits on the border of the fine grid). Residuals are restricted by averaging and corrections are prolonged by cell-centered bilinear
+ * interpolation.
+ *
+ * @author Charles Xie
+ *
+ */
+class MultigridHeatSolver2D extends HeatSolver2D {
+
+	final static byte V_CYCLE = 1;
+	final static byte W_CYCLE = 2;
+
+	private final static int MINIMUM_COARSE_SIZE = 4; // stop coarsening when the interior of a grid has fewer cells than this in either direction
+	private final static int COARSEST_SWEEPS = 40;
+	private final static float MINIMUM_RESIDUAL = 0.0000001f; // below this (in degrees), we are at the limit of single precision anyway
+
+	private byte cycleType = V_CYCLE;
+	private int preSmoothingSteps = 2;
+	private int postSmoothingSteps = 2;
+	private int maximumCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+	private float tolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE; // the cycles stop when the residual has been reduced by this factor
+
+	private int cycleCount;
+	private Level[] levels;
+
+	MultigridHeatSolver2D(int nx, int ny) {
+		this(nx, ny, V_CYCLE);
+	}
+
+	MultigridHeatSolver2D(int nx, int ny, byte cycleType) {
+		super(nx, ny);
+		this.cycleType = cycleType;
+		createLevels();
+	}
+
+	void setCycleType(byte cycleType) {
+		this.cycleType = cycleType;
+	}
+
+	byte getCycleType() {
+		return cycleType;
+	}
+
+	void setMaximumCycles(int maximumCycles) {
+		this.maximumCycles = maximumCycles;
+	}
+
+	void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/** @return the number of cycles used in the last step */
+	int getCycleCount() {
+		return cycleCount;
+	}
+
+	// the coarse levels (the finest grid is not stored here, it uses the arrays of the model directly)
+	private void createLevels() {
+		int n = 0;
+		int mx = nx, my = ny;
+		while (mx - 2 >= 2 * MINIMUM_COARSE_SIZE && my - 2 >= 2 * MINIMUM_COARSE_SIZE) {
+			mx = 2 + (mx - 1) / 2;
+			my = 2 + (my - 1) / 2;
+			n++;
+		}
+		levels = new Level[n];
+		// cell centers and widths of the finest grid, in units of the grid spacing
+		float[] x = new float[nx], wx = new float[nx];
+		float[] y = new float[ny], wy = new float[ny];
+		for (int i = 0; i < nx; i++) {
+			x[i] = i;
+			wx[i] = 1;
+		}
+		for (int j = 0; j < ny; j++) {
+			y[j] = j;
+			wy[j] = 1;
+		}
+		for (int l = 0; l < n; l++) {
+			levels[l] = new Level(x, wx, y, wy);
+			x = levels[l].x.center;
+			wx = levels[l].x.width;
+			y = levels[l].y.center;
+			wy = levels[l].y.width;
+		}
+	}
+
+	@Override
+	void setGridCellSize(float deltaX, float deltaY) {
+		super.setGridCellSize(deltaX, deltaY);
+		for (Level level : levels) {
+			level.hx = 0.5f / (deltaX * deltaX);
+			level.hy = 0.5f / (deltaY * deltaY);
+		}
+	}
+
+	@Override
+	void reset() {
+		super.reset();
+		for (Level level : levels)
+			level.clear();
+	}
+
+	void solve(boolean convective, float[][] t) {
+
+		MiscUtil.copy(t0, t);
+
+		if (levels.length == 0) { // grid too small to coarsen, fall back to plain relaxation
+			smooth(t, maximumCycles * (preSmoothingSteps + postSmoothingSteps));
+			residualNorm = computeResidual(t, null);
+			cycleCount = 0;
+		} else {
+			if (coefficientsChanged || temperatureBoundaryChanged) {
+				restrictCoefficients();
+				coefficientsChanged = temperatureBoundaryChanged = false;
+			}
+			float initialResidualNorm = computeResidual(t, null);
+			residualNorm = initialResidualNorm;
+			cycleCount = 0;
+			do {
+				smooth(t, preSmoothingSteps);
+				computeResidual(t, levels[0]);
+				levels[0].clear();
+				for (int g = 0; g < cycleType; g++)
+					cycle(0);
+				prolongAndCorrect(levels[0], t, nx, ny);
+				applyBoundary(t);
+				smooth(t, postSmoothingSteps);
+				residualNorm = computeResidual(t, null);
+				cycleCount++;
+			} while (cycleCount < maximumCycles && residualNorm > tolerance * initialResidualNorm && residualNorm > MINIMUM_RESIDUAL);
+		}
+		iterations = cycleCount;
+
+		// use a simple proportional control after the implicit step if applicable
+		if (zHeatDiffusivity != 0) {
+			for (int i = 1; i < nx1; i++) {
+				for (int j = 1; j < ny1; j++) {
+					if (Float.isNaN(tb[i][j]) && (!zHeatDiffusivityOnlyForFluid || fluidity.get(i, j)))
+						t[i][j] -= zHeatDiffusivity * timeStep * (t0[i][j] - backgroundTemperature);
+				}
+			}
+		}
+
+		if (convective) {
+			advect(t);
+		}
+
+	}
+
+	// Gauss-Seidel relaxation of the implicit equation on the finest grid, identical to the kernel of the default solver
+	private void smooth(float[][] t, int steps) {
+		float hx = 0.5f / (deltaX * deltaX);
+		float hy = 0.5f / (deltaY * deltaY);
+		float invTimeStep = 1f / timeStep;
+		float rij, sij, axij, bxij, ayij, byij;
+		for (int k = 0; k < steps; k++) {
+			for (int i = 1; i < nx1; i++) {
+				for (int j = 1; j < ny1; j++) {
+					if (Float.isNaN(tb[i][j])) {
+						sij = specificHeat[i][j] * density[i][j] * invTimeStep;
+						rij = conductivity[i][j];
+						axij = hx * (rij + conductivity[i - 1][j]);
+						bxij = hx * (rij + conductivity[i + 1][j]);
+						ayij = hy * (rij + conductivity[i][j - 1]);
+						byij = hy * (rij + conductivity[i][j + 1]);
+						t[i][j] = (t0[i][j] * sij + q[i][j] + axij * t[i - 1][j] + bxij * t[i + 1][j] + ayij * t[i][j - 1] + byij * t[i][j + 1]) / (sij + axij + bxij + ayij + byij);
+					} else {
+						t[i][j] = tb[i][j];
+					}
+				}
+			}
+			applyBoundary(t);
+		}
+	}
+
+	/*
+	 * Compute the residual of the implicit equation on the finest grid and return its root-mean-square value scaled by the diagonal (hence in degrees). If the coarse level is not null, the residual is also restricted to its right-hand side.
+	 */
+	private float computeResidual(float[][] t, Level coarse) {
+		float hx = 0.5f / (deltaX * deltaX);
+		float hy = 0.5f / (deltaY * deltaY);
+		float invTimeStep = 1f / timeStep;
+		float rij, sij, axij, bxij, ayij, byij, dij, res;
+		if (coarse != null) {
+			for (float[] x : coarse.f)
+				Arrays.fill(x, 0);
+		}
+		double sum = 0;
+		int count = 0;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (Float.isNaN(tb[i][j])) {
+					sij = specificHeat[i][j] * density[i][j] * invTimeStep;
+					rij = conductivity[i][j];
+					axij = hx * (rij + conductivity[i - 1][j]);
+					bxij = hx * (rij + conductivity[i + 1][j]);
+					ayij = hy * (rij + conductivity[i][j - 1]);
+					byij = hy * (rij + conductivity[i][j + 1]);
+					dij = sij + axij + bxij + ayij + byij;
+					res = t0[i][j] * sij + q[i][j] + axij * t[i - 1][j] + bxij * t[i + 1][j] + ayij * t[i][j - 1] + byij * t[i][j + 1] - dij * t[i][j];
+					if (coarse != null)
+						coarse.f[coarse.x.parent[i]][coarse.y.parent[j]] += coarse.x.share[i] * coarse.y.share[j] * res;
+					res /= dij;
+					sum += res * res;
+					count++;
+				}
+			}
+		}
+		return count > 0 ? (float) Math.sqrt(sum / count) : 0;
+	}
+
+	// recursively solve the residual equation on level l and return the correction in levels[l].e
+	private void cycle(int l) {
+		Level level = levels[l];
+		boolean insulated = boundary instanceof NeumannThermalBoundary;
+		if (l == levels.length - 1) {
+			level.relax(COARSEST_SWEEPS, timeStep, insulated);
+			return;
+		}
+		level.relax(preSmoothingSteps, timeStep, insulated);
+		Level coarse = levels[l + 1];
+		level.restrictResidual(coarse, timeStep);
+		coarse.clear();
+		for (int g = 0; g < cycleType; g++)
+			cycle(l + 1);
+		prolongAndCorrect(coarse, level.e, level.nx, level.ny);
+		level.relax(postSmoothingSteps, timeStep, insulated);
+	}
+
+	// restrict the material properties and the constant-temperature mask of the finest grid down the hierarchy
+	private void restrictCoefficients() {
+		levels[0].restrictFrom(nx, ny, conductivity, specificHeat, density, tb);
+		for (int l = 1; l < levels.length; l++) {
+			Level fine = levels[l - 1];
+			levels[l].restrictFrom(fine.nx, fine.ny, fine.conductivity, fine.specificHeat, fine.density, fine.tb);
+		}
+	}
+
+	// add the bilinear interpolation of the coarse correction to the free interior cells of the finer array
+	private static void prolongAndCorrect(Level coarse, float[][] f, int fnx, int fny) {
+		float[][] e = coarse.e;
+		float[][] mask = coarse.fineTb;
+		int[] px = coarse.x.parent, nx = coarse.x.neighbor;
+		int[] py = coarse.y.parent, ny = coarse.y.neighbor;
+		float[] wx = coarse.x.weight, wy = coarse.y.weight;
+		int ip, in, jp, jn;
+		float w, v;
+		for (int i = 1; i < fnx - 1; i++) {
+			ip = px[i];
+			in = nx[i];
+			w = wx[i];
+			v = 1 - w;
+			for (int j = 1; j < fny - 1; j++) {
+				if (Float.isNaN(mask[i][j])) {
+					jp = py[j];
+					jn = ny[j];
+					f[i][j] += wy[j] * (w * e[ip][jp] + v * e[in][jp]) + (1 - wy[j]) * (w * e[ip][jn] + v * e[in][jn]);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The geometry of a coarse grid along one axis. The two border cells stay where the border cells of the finer grid are and each interior cell aggregates two interior cells of the finer grid (the last one may take only one). As the centers of the coarse cells are
+	 * not evenly spaced near the border, the coupling coefficients are computed from the actual distances between the centers, as in a finite-volume discretization.
+	 */
+	private static class Axis {
+
+		float[] center, width; // in units of the finest grid spacing
+		float[] west, east; // the geometric factors of the coupling coefficients with the neighbors on the two sides
+		int[] parent, neighbor; // for each cell of the finer grid, the coarse cell that contains it and the next nearest coarse cell
+		float[] weight; // for each cell of the finer grid, the interpolation weight of its parent
+		float[] share; // for each cell of the finer grid, its volume fraction in the parent (for restriction)
+
+		Axis(float[] fineCenter, float[] fineWidth) {
+			int fn = fineCenter.length;
+			int n = 2 + (fn - 1) / 2;
+			center = new float[n];
+			width = new float[n];
+			center[0] = fineCenter[0];
+			width[0] = fineWidth[0];
+			center[n - 1] = fineCenter[fn - 1];
+			width[n - 1] = fineWidth[fn - 1];
+			parent = new int[fn];
+			parent[fn - 1] = n - 1;
+			for (int i = 1; i < n - 1; i++) {
+				int c0 = 2 * i - 1;
+				int c1 = Math.min(2 * i, fn - 2);
+				width[i] = 0;
+				center[i] = 0;
+				for (int c = c0; c <= c1; c++) {
+					width[i] += fineWidth[c];
+					center[i] += fineCenter[c] * fineWidth[c];
+					parent[c] = i;
+				}
+				center[i] /= width[i];
+			}
+			west = new float[n];
+			east = new float[n];
+			for (int i = 1; i < n - 1; i++) {
+				west[i] = 1f / (width[i] * (center[i] - center[i - 1]));
+				east[i] = 1f / (width[i] * (center[i + 1] - center[i]));
+			}
+			neighbor = new int[fn];
+			weight = new float[fn];
+			share = new float[fn];
+			for (int c = 0; c < fn; c++) {
+				int p = parent[c];
+				share[c] = fineWidth[c] / width[p];
+				float d = fineCenter[c] - center[p];
+				if (d == 0 || p == 0 || p == n - 1) {
+					neighbor[c] = p;
+					weight[c] = 1;
+				} else {
+					neighbor[c] = d < 0 ? p - 1 : p + 1;
+					weight[c] = 1 - Math.abs(d) / Math.abs(center[neighbor[c]] - center[p]);
+				}
+			}
+		}
+
+	}
+
+	private static class Level {
+
+		int nx, ny, nx1, ny1;
+		float hx, hy;
+		Axis x, y;
+		float[][] conductivity, specificHeat, density, tb;
+		float[][] fineTb; // the constant-temperature mask of the finer grid, used to leave its fixed cells untouched during prolongation
+		float[][] e; // the correction
+		float[][] f; // the right-hand side (the restricted residual of the finer grid)
+
+		Level(float[] fineX, float[] fineWidthX, float[] fineY, float[] fineWidthY) {
+			x = new Axis(fineX, fineWidthX);
+			y = new Axis(fineY, fineWidthY);
+			nx = x.center.length;
+			ny = y.center.length;
+			nx1 = nx - 1;
+			ny1 = ny - 1;
+			conductivity = new float[nx][ny];
+			specificHeat = new float[nx][ny];
+			density = new float[nx][ny];
+			tb = new float[nx][ny];
+			e = new float[nx][ny];
+			f = new float[nx][ny];
+		}
+
+		void clear() {
+			for (float[] a : e)
+				Arrays.fill(a, 0);
+		}
+
+		// a coarse cell is fixed if any of its fine cells is, and then takes their average temperature
+		void restrictFrom(int fnx, int fny, float[][] fk, float[][] fc, float[][] fd, float[][] ftb) {
+			fineTb = ftb;
+			for (int i = 0; i < nx; i++) {
+				Arrays.fill(conductivity[i], 0);
+				Arrays.fill(specificHeat[i], 0);
+				Arrays.fill(density[i], 0);
+				Arrays.fill(tb[i], 0);
+			}
+			int[][] fixedCount = new int[nx][ny];
+			int ic, jc;
+			float w;
+			for (int i = 0; i < fnx; i++) {
+				ic = x.parent[i];
+				for (int j = 0; j < fny; j++) {
+					jc = y.parent[j];
+					w = x.share[i] * y.share[j];
+					conductivity[ic][jc] += w * fk[i][j];
+					density[ic][jc] += w * fd[i][j];
+					specificHeat[ic][jc] += w * fc[i][j] * fd[i][j]; // accumulate the heat capacity first
+					if (!Float.isNaN(ftb[i][j])) {
+						tb[ic][jc] += ftb[i][j];
+						fixedCount[ic][jc]++;
+					}
+				}
+			}
+			for (int i = 0; i < nx; i++) {
+				for (int j = 0; j < ny; j++) {
+					specificHeat[i][j] = density[i][j] > 0 ? specificHeat[i][j] / density[i][j] : 0;
+					tb[i][j] = fixedCount[i][j] > 0 ? tb[i][j] / fixedCount[i][j] : Float.NaN;
+				}
+			}
+		}
+
+		/*
+		 * Gauss-Seidel relaxation of the homogeneous residual equation. The correction vanishes at fixed cells and obeys the homogeneous version of the boundary condition of the finest grid: it vanishes at a border of fixed temperatures and has no gradient across a
+		 * border of fixed fluxes (whose flux drops out of the residual equation), which is imposed exactly by dropping the coupling with the border cells rather than by a border that lags a sweep behind.
+		 */
+		void relax(int steps, float timeStep, boolean insulated) {
+			float invTimeStep = 1f / timeStep;
+			float rij, sij, axij, bxij, ayij, byij;
+			for (int k = 0; k < steps; k++) {
+				for (int i = 1; i < nx1; i++) {
+					for (int j = 1; j < ny1; j++) {
+						if (Float.isNaN(tb[i][j])) {
+							sij = specificHeat[i][j] * density[i][j] * invTimeStep;
+							rij = conductivity[i][j];
+							axij = hx * x.west[i] * (rij + conductivity[i - 1][j]);
+							bxij = hx * x.east[i] * (rij + conductivity[i + 1][j]);
+							ayij = hy * y.west[j] * (rij + conductivity[i][j - 1]);
+							byij = hy * y.east[j] * (rij + conductivity[i][j + 1]);
+							if (insulated) { // a border cell equals its neighbor, so the coupling with it cancels out
+								if (i == 1)
+									axij = 0;
+								if (i == nx1 - 1)
+									bxij = 0;
+								if (j == 1)
+									ayij = 0;
+								if (j == ny1 - 1)
+									byij = 0;
+							}
+							e[i][j] = (f[i][j] + axij * e[i - 1][j] + bxij * e[i + 1][j] + ayij * e[i][j - 1] + byij * e[i][j + 1]) / (sij + axij + bxij + ayij + byij);
+						}
+					}
+				}
+				if (insulated)
+					mirrorBorder();
+			}
+		}
+
+		// the border cells take the corrections of their interior neighbors, in the same order as the boundary of the finest grid is applied
+		private void mirrorBorder() {
+			for (int i = 0; i < nx; i++) {
+				e[i][0] = e[i][1];
+				e[i][ny1] = e[i][ny1 - 1];
+			}
+			for (int j = 0; j < ny; j++) {
+				e[0][j] = e[1][j];
+				e[nx1][j] = e[nx1 - 1][j];
+			}
+		}
+
+		// compute the residual of the correction equation and restrict it to the right-hand side of the coarser level
+		void restrictResidual(Level coarse, float timeStep) {
+			float invTimeStep = 1f / timeStep;
+			float rij, sij, axij, bxij, ayij, byij;
+			float[][] r = coarse.f;
+			for (float[] a : r)
+				Arrays.fill(a, 0);
+			for (int i = 1; i < nx1; i++) {
+				for (int j = 1; j < ny1; j++) {
+					if (Float.isNaN(tb[i][j])) {
+						sij = specificHeat[i][j] * density[i][j] * invTimeStep;
+						rij = conductivity[i][j];
+						axij = hx * x.west[i] * (rij + conductivity[i - 1][j]);
+						bxij = hx * x.east[i] * (rij + conductivity[i + 1][j]);
+						ayij = hy * y.west[j] * (rij + conductivity[i][j - 1]);
+						byij = hy * y.east[j] * (rij + conductivity[i][j + 1]);
+						r[coarse.x.parent[i]][coarse.y.parent[j]] += coarse.x.share[i] * coarse.y.share[j] * (f[i][j] + axij * e[i - 1][j] + bxij * e[i + 1][j] + ayij * e[i][j - 1] + byij * e[i][j + 1] - (sij + axij + bxij + ayij + byij) * e[i][j]);
+					}
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,330 @@
+package org.energy2d.model;
+
+import java.util.Arrays;
+
+/**
+ * A geometric multigrid solver for the pressure Poisson equation of the projection step, lap(phi) = div, on the fluid cells of the grid. A few Gauss-Seidel sweeps leave most of the smooth part of the divergence in the velocity field, which shows up as mass that is neither conserved nor
+ * advected away in convective models. Here the residual is passed down a hierarchy of coarser grids, so a V-cycle removes the error at all scales.
+ *
+ * The boundary conditions are those of the velocity field: the walls of obstacles and the borders that stop or reflect flow have no normal velocity, hence a zero normal derivative of phi, whereas the borders that let flow through hold phi at zero. A wall simply removes the
+ * coupling across it from the five-point stencil. If no border lets flow through, the problem is only defined up to a constant and the mean of the divergence is removed first.
+ *
+ * Each coarse cell aggregates two by two fine cells and takes the couplings across its faces from the fine faces it covers (halved, to account for the doubled distance between the centers), so obstacles are represented on every level. Residuals are restricted by summation and
+ * corrections are prolonged as constants over each aggregate.
+ *
+ * @author Charles Xie
+ *
+ */
+class MultigridPoissonSolver2D {
+
+	private final static int MINIMUM_COARSE_SIZE = 4; // stop coarsening when the interior of a grid has fewer cells than this in either direction
+	private final static int COARSEST_SWEEPS = 40;
+
+	private int preSmoothingSteps = 2;
+	private int postSmoothingSteps = 2;
+	private int maximumCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+	private float tolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE; // the cycles stop when the residual has been reduced by this factor
+
+	private final int nx, ny;
+	private final Level[] levels; // levels[0] is the grid of the model
+	private boolean coefficientsChanged = true;
+	private byte[] flowTypes = new byte[4]; // the border types for which the coefficients were built
+	private boolean singular;
+	private int cycleCount;
+	private float residualNorm;
+
+	MultigridPoissonSolver2D(int nx, int ny) {
+		this.nx = nx;
+		this.ny = ny;
+		int n = 1;
+		int mx = nx, my = ny;
+		while (mx - 2 >= 2 * MINIMUM_COARSE_SIZE && my - 2 >= 2 * MINIMUM_COARSE_SIZE) {
+			mx = 2 + (mx - 1) / 2;
+			my = 2 + (my - 1) / 2;
+			n++;
+		}
+		levels = new Level[n];
+		mx = nx;
+		my = ny;
+		for (int l = 0; l < n; l++) {
+			levels[l] = new Level(mx, my, l);
+			mx = 2 + (mx - 1) / 2;
+			my = 2 + (my - 1) / 2;
+		}
+	}
+
+	void setMaximumCycles(int maximumCycles) {
+		this.maximumCycles = maximumCycles;
+	}
+
+	void setTolerance(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/** @return the number of cycles used in the last solve */
+	int getCycleCount() {
+		return cycleCount;
+	}
+
+	/** @return the root-mean-square residual left by the last solve */
+	float getResidualNorm() {
+		return residualNorm;
+	}
+
+	/** must be called after the fluidity mask or the grid cell size changes */
+	void invalidateCoefficients() {
+		coefficientsChanged = true;
+	}
+
+	/**
+	 * Solve for phi on the fluid cells, starting from zero. On return, the solid cells next to fluid are not yet set (call setObstacleBoundary), but the border cells hold the values prescribed by the boundary conditions, so that phi can be differentiated right away.
+	 */
+	void solve(float[][] phi, float[][] div, FluidityMask fluidity, SimpleMassBoundary boundary, float idxsq, float idysq, RelaxationSweeper sweeper) {
+
+		for (byte side = Boundary.UPPER; side <= Boundary.LEFT; side++) {
+			if (boundary.getFlowTypeAtBorder(side) != flowTypes[side]) {
+				flowTypes[side] = boundary.getFlowTypeAtBorder(side);
+				coefficientsChanged = true;
+			}
+		}
+		if (coefficientsChanged) {
+			buildCoefficients(fluidity, idxsq, idysq);
+			coefficientsChanged = false;
+		}
+
+		Level fine = levels[0];
+		double sum = 0;
+		int count = 0;
+		for (int i = 1; i < nx - 1; i++) {
+			Arrays.fill(fine.e[i], 0);
+			for (int j = 1; j < ny - 1; j++) {
+				if (fine.diagonal[i][j] > 0) {
+					fine.f[i][j] = -div[i][j];
+					sum += div[i][j];
+					count++;
+				} else {
+					fine.f[i][j] = 0;
+				}
+			}
+		}
+		if (singular && count > 0) { // make the pure Neumann problem solvable
+			float mean = (float) (sum / count);
+			for (int i = 1; i < nx - 1; i++) {
+				for (int j = 1; j < ny - 1; j++) {
+					if (fine.diagonal[i][j] > 0)
+						fine.f[i][j] += mean;
+				}
+			}
+		}
+
+		float initialResidualNorm = fine.restrictResidual(null);
+		residualNorm = initialResidualNorm;
+		cycleCount = 0;
+		while (cycleCount < maximumCycles && residualNorm > tolerance * initialResidualNorm) {
+			cycle(0, sweeper);
+			residualNorm = fine.restrictResidual(null);
+			cycleCount++;
+		}
+
+		for (int i = 1; i < nx - 1; i++) {
+			for (int j = 1; j < ny - 1; j++) {
+				if (fine.diagonal[i][j] > 0)
+					phi[i][j] = fine.e[i][j];
+			}
+		}
+		for (int i = 1; i < nx - 1; i++) {
+			phi[i][0] = flowTypes[Boundary.UPPER] == MassBoundary.THROUGH ? 0 : phi[i][1];
+			phi[i][ny - 1] = flowTypes[Boundary.LOWER] == MassBoundary.THROUGH ? 0 : phi[i][ny - 2];
+		}
+		for (int j = 1; j < ny - 1; j++) {
+			phi[0][j] = flowTypes[Boundary.LEFT] == MassBoundary.THROUGH ? 0 : phi[1][j];
+			phi[nx - 1][j] = flowTypes[Boundary.RIGHT] == MassBoundary.THROUGH ? 0 : phi[nx - 2][j];
+		}
+
+	}
+
+	// recursively reduce the residual of level l, whose right-hand side has been set
+	private void cycle(int l, RelaxationSweeper sweeper) {
+		Level level = levels[l];
+		if (l == levels.length - 1) {
+			level.smooth(COARSEST_SWEEPS, sweeper);
+			return;
+		}
+		level.smooth(preSmoothingSteps, sweeper);
+		Level coarse = levels[l + 1];
+		level.restrictResidual(coarse);
+		for (float[] a : coarse.e)
+			Arrays.fill(a, 0);
+		cycle(l + 1, sweeper);
+		level.prolongAndCorrect(coarse);
+		level.smooth(postSmoothingSteps, sweeper);
+	}
+
+	private void buildCoefficients(FluidityMask fluidity, float idxsq, float idysq) {
+		Level fine = levels[0];
+		fine.clearCoefficients();
+		singular = true;
+		for (byte side = Boundary.UPPER; side <= Boundary.LEFT; side++) {
+			if (flowTypes[side] == MassBoundary.THROUGH)
+				singular = false;
+		}
+		int nx1 = nx - 1, ny1 = ny - 1;
+		for (int i = 1; i < nx1; i++) {
+			for (int j = 1; j < ny1; j++) {
+				if (!fluidity.get(i, j))
+					continue;
+				if (i == 1)
+					fine.dirichlet[i][j] += flowTypes[Boundary.LEFT] == MassBoundary.THROUGH ? idxsq : 0;
+				else if (fluidity.get(i - 1, j))
+					fine.west[i][j] = idxsq;
+				if (i == nx1 - 1)
+					fine.dirichlet[i][j] += flowTypes[Boundary.RIGHT] == MassBoundary.THROUGH ? idxsq : 0;
+				else if (fluidity.get(i + 1, j))
+					fine.east[i][j] = idxsq;
+				if (j == 1)
+					fine.dirichlet[i][j] += flowTypes[Boundary.UPPER] == MassBoundary.THROUGH ? idysq : 0;
+				else if (fluidity.get(i, j - 1))
+					fine.south[i][j] = idysq;
+				if (j == ny1 - 1)
+					fine.dirichlet[i][j] += flowTypes[Boundary.LOWER] == MassBoundary.THROUGH ? idysq : 0;
+				else if (fluidity.get(i, j + 1))
+					fine.north[i][j] = idysq;
+			}
+		}
+		fine.computeDiagonal();
+		for (int l = 1; l < levels.length; l++)
+			levels[l].coarsenFrom(levels[l - 1]);
+	}
+
+	private static class Level {
+
+		final int nx, ny, nx1, ny1;
+		final float dirichletFactor; // the ratio of the distances from the border to the first cell centers of the finer grid and this one, relative to the doubled width
+		final float[][] west, east, south, north; // the couplings with the four neighbors (zero across walls)
+		final float[][] dirichlet; // the couplings with the borders that hold phi at zero
+		final float[][] diagonal; // zero for the cells that take no part in the solve
+		final float[][] e; // the solution (on the finest level) or the correction
+		final float[][] f; // the right-hand side
+		private final RelaxationSweeper.Kernel kernel;
+
+		Level(int nx, int ny, int depth) {
+			// the first cell center of a level that aggregates 2^depth cells lies (2^depth + 1) / 2 fine cells away from the border
+			dirichletFactor = depth > 0 ? ((1 << (depth - 1)) + 1f) / ((1 << depth) + 1f) : 1;
+			this.nx = nx;
+			this.ny = ny;
+			nx1 = nx - 1;
+			ny1 = ny - 1;
+			west = new float[nx][ny];
+			east = new float[nx][ny];
+			south = new float[nx][ny];
+			north = new float[nx][ny];
+			dirichlet = new float[nx][ny];
+			diagonal = new float[nx][ny];
+			e = new float[nx][ny];
+			f = new float[nx][ny];
+			kernel = (iStart, iEnd, colour, stats) -> relax(iStart, iEnd, colour);
+		}
+
+		// the coarse cell that contains the interior cell i of the finer grid
+		static int parent(int i) {
+			return (i + 1) >> 1;
+		}
+
+		void clearCoefficients() {
+			for (int i = 0; i < nx; i++) {
+				Arrays.fill(west[i], 0);
+				Arrays.fill(east[i], 0);
+				Arrays.fill(south[i], 0);
+				Arrays.fill(north[i], 0);
+				Arrays.fill(dirichlet[i], 0);
+			}
+		}
+
+		void computeDiagonal() {
+			for (int i = 0; i < nx; i++) {
+				for (int j = 0; j < ny; j++)
+					diagonal[i][j] = west[i][j] + east[i][j] + south[i][j] + north[i][j] + dirichlet[i][j];
+			}
+		}
+
+		// the faces between two aggregates carry the couplings of the fine faces they cover, the faces inside an aggregate disappear
+		void coarsenFrom(Level fine) {
+			clearCoefficients();
+			int ic, jc;
+			for (int i = 1; i < fine.nx1; i++) {
+				ic = parent(i);
+				for (int j = 1; j < fine.ny1; j++) {
+					if (fine.diagonal[i][j] <= 0)
+						continue;
+					jc = parent(j);
+					if (parent(i - 1) != ic)
+						west[ic][jc] += 0.5f * fine.west[i][j];
+					if (parent(i + 1) != ic)
+						east[ic][jc] += 0.5f * fine.east[i][j];
+					if (parent(j - 1) != jc)
+						south[ic][jc] += 0.5f * fine.south[i][j];
+					if (parent(j + 1) != jc)
+						north[ic][jc] += 0.5f * fine.north[i][j];
+					dirichlet[ic][jc] += dirichletFactor * fine.dirichlet[i][j];
+				}
+			}
+			computeDiagonal();
+		}
+
+		void smooth(int steps, RelaxationSweeper sweeper) {
+			float[] stats = new float[2];
+			for (int k = 0; k < steps; k++)
+				sweeper.sweep(nx1, kernel, stats);
+		}
+
+		private void relax(int iStart, int iEnd, int colour) {
+			int stride = RelaxationSweeper.rowStride(colour);
+			float d;
+			for (int i = iStart; i < iEnd; i++) {
+				for (int j = RelaxationSweeper.firstRow(i, colour); j < ny1; j += stride) {
+					d = diagonal[i][j];
+					if (d > 0)
+						e[i][j] = (f[i][j] + west[i][j] * e[i - 1][j] + east[i][j] * e[i + 1][j] + south[i][j] * e[i][j - 1] + north[i][j] * e[i][j + 1]) / d;
+				}
+			}
+		}
+
+		/*
+		 * Compute the residual and return its root-mean-square value. If the coarse level is not null, the residual is also summed into its right-hand side.
+		 */
+		float restrictResidual(Level coarse) {
+			if (coarse != null) {
+				for (float[] a : coarse.f)
+					Arrays.fill(a, 0);
+			}
+			double sum = 0;
+			int count = 0;
+			float r;
+			for (int i = 1; i < nx1; i++) {
+				for (int j = 1; j < ny1; j++) {
+					if (diagonal[i][j] > 0) {
+						r = f[i][j] + west[i][j] * e[i - 1][j] + east[i][j] * e[i + 1][j] + south[i][j] * e[i][j - 1] + north[i][j] * e[i][j + 1] - diagonal[i][j] * e[i][j];
+						if (coarse != null)
+							coarse.f[parent(i)][parent(j)] += r;
+						sum += r * r;
+						count++;
+					}
+				}
+			}
+			return count > 0 ? (float) Math.sqrt(sum / count) : 0;
+		}
+
+		void prolongAndCorrect(Level coarse) {
+			float[] c;
+			for (int i = 1; i < nx1; i++) {
+				c = coarse.e[parent(i)];
+				for (int j = 1; j < ny1; j++) {
+					if (diagonal[i][j] > 0)
+						e[i][j] += c[parent(j)];
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+package org.energy2d.model;
+
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.List;
+
+import org.energy2d.math.Blob2D;
+import org.energy2d.math.Polygon2D;
+
+/**
+ * A bounding volume hierarchy over the lines of the parts that block radiation, so that a line of sight is tested only against the lines near it instead of against every line of every part.
+ *
+ * Each node bounds a group of lines. The two children of a node split its lines in halves by their centers along the longer side of its box, and the leaves hold a few lines each. A query descends only into the boxes that the line of sight passes through and
+ * stops at the first line it crosses. The boxes are enlarged by a small margin so that the round-off of the box test can never skip a line that the exact test would report.
+ *
+ * A tree is never changed after it is built. The radiosity solver builds a new one with the mesh.
+ *
+ * @author Charles Xie
+ *
+ */
+class OcclusionTree {
+
+	private final static int LEAF_SIZE = 4;
+
+	private final float[] lines; // (x1, y1, x2, y2) of each line, in the order of the leaves
+	private final boolean[] shortened; // whether a line is tested against the shortened line of sight (the perimeter of a polygon or a blob)
+	private final float margin;
+
+	// node k holds the lines from nodeStart[k] to nodeEnd[k] - 1 in the box from (nodeBox[4 * k], nodeBox[4 * k + 1]) to (nodeBox[4 * k + 2], nodeBox[4 * k + 3]), and its children are nodeLeft[k] and nodeRight[k] (-1 for a leaf)
+	private final int[] nodeStart, nodeEnd, nodeLeft, nodeRight;
+	private final float[] nodeBox;
+	private int nodeCount;
+
+	OcclusionTree(List<Part> parts) {
+		float[][] partLines = new float[parts.size()][];
+		int count = 0;
+		for (int p = 0; p < partLines.length; p++) {
+			partLines[p] = parts.get(p).getOccludingLines();
+			count += partLines[p].length / 4;
+		}
+
+		float[] unsorted = new float[4 * count];
+		boolean[] unsortedShortened = new boolean[count];
+		float[] cx = new float[count], cy = new float[count];
+		int n = 0;
+		for (int p = 0; p < partLines.length; p++) {
+			Shape shape = parts.get(p).getShape();
+			boolean s = shape instanceof Polygon2D || shape instanceof Blob2D;
+			float[] a = partLines[p];
+			for (int k = 0; k < a.length; k += 4) {
+				System.arraycopy(a, k, unsorted, 4 * n, 4);
+				unsortedShortened[n] = s;
+				cx[n] = 0.5f * (a[k] + a[k + 2]);
+				cy[n] = 0.5f * (a[k + 1] + a[k + 3]);
+				n++;
+			}
+		}
+
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		int capacity = Math.max(1, count); // a split leaves at least two lines on each side, so there are fewer nodes than lines
+		nodeStart = new int[capacity];
+		nodeEnd = new int[capacity];
+		nodeLeft = new int[capacity];
+		nodeRight = new int[capacity];
+		nodeBox = new float[4 * capacity];
+		build(0, count, order, unsorted, cx, cy, new long[count]);
+
+		lines = new float[4 * count];
+		shortened = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(unsorted, 4 * order[i], lines, 4 * i, 4);
+			shortened[i] = unsortedShortened[order[i]];
+		}
+		float extent = 0;
+		for (int k = 0; k < 4; k++)
+			extent = Math.max(extent, Math.abs(nodeBox[k]));
+		margin = 0.0001f * extent + Float.MIN_NORMAL;
+	}
+
+	// build the node of the lines order[start] to order[end - 1] and return its index
+	private int build(int start, int end, int[] order, float[] unsorted, float[] cx, float[] cy, long[] keys) {
+		int node = nodeCount++;
+		nodeStart[node] = start;
+		nodeEnd[node] = end;
+		nodeLeft[node] = nodeRight[node] = -1;
+		float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+		int k;
+		for (int i = start; i < end; i++) {
+			k = 4 * order[i];
+			x0 = Math.min(x0, Math.min(unsorted[k], unsorted[k + 2]));
+			x1 = Math.max(x1, Math.max(unsorted[k], unsorted[k + 2]));
+			y0 = Math.min(y0, Math.min(unsorted[k + 1], unsorted[k + 3]));
+			y1 = Math.max(y1, Math.max(unsorted[k + 1], unsorted[k + 3]));
+		}
+		if (end == start)
+			x0 = y0 = x1 = y1 = 0;
+		nodeBox[4 * node] = x0;
+		nodeBox[4 * node + 1] = y0;
+		nodeBox[4 * node + 2] = x1;
+		nodeBox[4 * node + 3] = y1;
+		if (end - start <= LEAF_SIZE)
+			return node;
+
+		// split at the median of the centers along the longer side (the keys pack a center and its line so that they sort as primitives)
+		float[] c = x1 - x0 >= y1 - y0 ? cx : cy;
+		int bits;
+		for (int i = start; i < end; i++) {
+			bits = Float.floatToIntBits(c[order[i]]);
+			keys[i] = ((long) (bits ^ ((bits >> 31) & 0x7fffffff)) << 32) | order[i];
+		}
+		Arrays.sort(keys, start, end);
+		for (int i = start; i < end; i++)
+			order[i] = (int) keys[i];
+		int middle = (start + end) >>> 1;
+		nodeLeft[node] = build(start, middle, order, unsorted, cx, cy, keys);
+		nodeRight[node] = build(middle, end, order, unsorted, cx, cy, keys);
+		return node;
+	}
+
+	/**
+	 * Does the line of sight from (ax, ay) to (bx, by) cross any line? The perimeters of polygons and blobs are tested against the shortened line of sight from (sx, sy) to (tx, ty), which must lie on the full one, and all the other lines against the full one.
+	 */
+	boolean intersects(float ax, float ay, float bx, float by, float sx, float sy, float tx, float ty) {
+		return nodeCount > 0 && intersects(0, ax, ay, bx, by, sx, sy, tx, ty);
+	}
+
+	private boolean intersects(int node, float ax, float ay, float bx, float by, float sx, float sy, float tx, float ty) {
+		if (!crossesBox(node, ax, ay, bx, by))
+			return false;
+		if (nodeLeft[node] >= 0)
+			return intersects(nodeLeft[node], ax, ay, bx, by, sx, sy, tx, ty) || intersects(nodeRight[node], ax, ay, bx, by, sx, sy, tx, ty);
+		int k;
+		for (int i = nodeStart[node]; i < nodeEnd[node]; i++) {
+			k = 4 * i;
+			if (shortened[i]) {
+				if (Line2D.linesIntersect(lines[k], lines[k + 1], lines[k + 2], lines[k + 3], sx, sy, tx, ty))
+					return true;
+			} else {
+				if (Line2D.linesIntersect(ax, ay, bx, by, lines[k], lines[k + 1], lines[k + 2], lines[k + 3]))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	// does the line from (ax, ay) to (bx, by) pass through the box of the node, enlarged by the margin? (the slab test)
+	private boolean crossesBox(int node, float ax, float ay, float bx, float by) {
+		int k = 4 * node;
+		double t0 = 0, t1 = 1;
+		double d = bx - ax;
+		double lo = nodeBox[k] - margin, hi = nodeBox[k + 2] + margin;
+		if (d == 0) {
+			if (ax < lo || ax > hi)
+				return false;
+		} else {
+			double u = (lo - ax) / d, v = (hi - ax) / d;
+			t0 = Math.max(t0, Math.min(u, v));
+			t1 = Math.min(t1, Math.max(u, v));
+			if (t0 > t1)
+				return false;
+		}
+		d = by - ay;
+		lo = nodeBox[k + 1] - margin;
+		hi = nodeBox[k + 3] + margin;
+		if (d == 0)
+			return ay >= lo && ay <= hi;
+		double u = (lo - ay) / d, v = (hi - ay) / d;
+		return Math.max(t0, Math.min(u, v)) <= Math.min(t1, Math.max(u, v));
+	}
+
+}
@@ -4,10 +4,10 @@ import java.awt.Color;
 import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
-import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.List;
 
 import org.energy2d.math.Annulus;
@@ -357,21 +357,16 @@ public class Part extends Manipulable {
 		return getShape().contains(p.getRx(), p.getRy());
 	}
 
-	/* return true if the line connecting the two specified segments intersects with this part. */
-	boolean intersectsLine(Segment s1, Segment s2) {
-
-		Point2D.Float p1 = s1.getCenter();
-		Point2D.Float p2 = s2.getCenter();
-
-		if (p1.distanceSq(p2) < 0.000001f * model.getLx())
-			return true;
+	/*
+	 * return the lines of this part that block radiation, as the quadruples (x1, y1, x2, y2). The outline of a rectangle, an ellipse or an annulus is pulled a bit into the part so that a line of sight ending on its perimeter crosses it, while the perimeter of a
+	 * polygon or a blob is returned as it is and the line of sight is shortened instead (see RadiositySolver2D).
+	 */
+	float[] getOccludingLines() {
 
 		Shape shape = getShape();
 
 		if (shape instanceof Rectangle2D.Float) { // a rectangle is convex
 
-			if (s1.getPart() == this && s2.getPart() == this)
-				return true;
 			// shrink it a bit to ensure that it intersects with this rectangular part
 			Rectangle2D.Float r0 = (Rectangle2D.Float) shape;
 			float indent = 0.001f;
@@ -379,67 +374,23 @@ public class Part extends Manipulable {
 			float y0 = r0.y + indent * r0.height;
 			float x1 = r0.x + (1 - indent) * r0.width;
 			float y1 = r0.y + (1 - indent) * r0.height;
-			if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, x0, y0, x1, y0))
-				return true;
-			if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, x1, y0, x1, y1))
-				return true;
-			if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, x1, y1, x0, y1))
-				return true;
-			if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, x0, y1, x0, y0))
-				return true;
+			return new float[] { x0, y0, x1, y0, x1, y0, x1, y1, x1, y1, x0, y1, x0, y1, x0, y0 };
 
 		} else if (shape instanceof Polygon2D || shape instanceof Blob2D) { // a polygon or blob may be concave or convex
 
-			float delta = model.getLx() / model.getNx();
-			float indent = 0.001f * delta;
-			float x3 = p1.x, y3 = p1.y, x4 = p2.x, y4 = p2.y;
-			if (Math.abs(p1.x - p2.x) < indent) {
-				delta = Math.signum(p2.y - p1.y) * indent;
-				y3 += delta;
-				y4 -= delta;
-			} else if (Math.abs(p1.y - p2.y) < indent) {
-				delta = Math.signum(p2.x - p1.x) * indent;
-				x3 += delta;
-				x4 -= delta;
-			} else {
-				float k = (p2.y - p1.y) / (p2.x - p1.x);
-				delta = Math.signum(p2.x - p1.x) * indent;
-				x3 += delta;
-				x4 -= delta;
-				y3 = p1.y + k * (x3 - p1.x);
-				y4 = p1.y + k * (x4 - p1.x);
-			}
 			List<Segment> partSegments = model.getPerimeterSegments(this);
-			int n = partSegments.size();
-			if (n > 0) {
-				boolean bothBelongToThisPart = s1.getPart() == this && s2.getPart() == this;
-				Shape shape2 = shape;
-				if (shape instanceof Blob2D) { // we will have to use the approximated polygon instead of the blob
-					Path2D.Float path = new Path2D.Float();
-					Segment s = partSegments.get(0);
-					path.moveTo(s.x1, s.y1);
-					path.lineTo(s.x2, s.y2);
-					if (n > 1) {
-						for (int i = 1; i < n; i++) {
-							s = partSegments.get(i);
-							path.lineTo(s.x2, s.y2);
-						}
-					}
-					path.closePath();
-					shape2 = path;
-				}
-				for (Segment s : partSegments) {
-					if (bothBelongToThisPart && (shape2.contains(x3, y3) || shape2.contains(x4, y4)))
-						return true;
-					if (s.intersectsLine(x3, y3, x4, y4))
-						return true;
-				}
+			float[] lines = new float[4 * partSegments.size()];
+			int k = 0;
+			for (Segment s : partSegments) {
+				lines[k++] = s.x1;
+				lines[k++] = s.y1;
+				lines[k++] = s.x2;
+				lines[k++] = s.y2;
 			}
+			return lines;
 
 		} else if (shape instanceof Ellipse2D.Float) { // an ellipse is convex
 
-			if (s1.getPart() == this && s2.getPart() == this)
-				return true;
 			Ellipse2D.Float e0 = (Ellipse2D.Float) shape;
 			// shrink it a bit to ensure that it intersects with this elliptical part
 			float indent = 0.01f;
@@ -455,23 +406,7 @@ public class Part extends Manipulable {
 			h *= h;
 			double perimeter = Math.PI * (a + b) * (1 + 3 * h / (10 + Math.sqrt(4 - 3 * h)));
 			float patchSize = model.getLx() * model.getPerimeterStepSize();
-			int n = (int) (perimeter / patchSize);
-			if (n > 0) {
-				float[] vx = new float[n];
-				float[] vy = new float[n];
-				float theta;
-				float delta = (float) (2 * Math.PI / n);
-				for (int i = 0; i < n; i++) {
-					theta = delta * i;
-					vx[i] = (float) (x + a * Math.cos(theta));
-					vy[i] = (float) (y + b * Math.sin(theta));
-				}
-				for (int i = 0; i < n - 1; i++)
-					if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[i], vy[i], vx[i + 1], vy[i + 1]))
-						return true;
-				if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[n - 1], vy[n - 1], vx[0], vy[0]))
-					return true;
-			}
+			return getClosedLines(x, y, a, b, (int) (perimeter / patchSize), new float[0]);
 
 		} else if (shape instanceof Annulus) {
 
@@ -484,41 +419,15 @@ public class Part extends Manipulable {
 			double perimeter = Math.PI * d;
 			float patchSize = model.getLx() * model.getPerimeterStepSize();
 			int n = (int) (perimeter / patchSize);
-			if (n > 0) {
-				float[] vx = new float[n];
-				float[] vy = new float[n];
-				float theta;
-				float delta = (float) (2 * Math.PI / n);
-				d /= 2;
-				for (int i = 0; i < n; i++) {
-					theta = delta * i;
-					vx[i] = (float) (x + d * Math.cos(theta));
-					vy[i] = (float) (y + d * Math.sin(theta));
-				}
-				for (int i = 0; i < n - 1; i++)
-					if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[i], vy[i], vx[i + 1], vy[i + 1]))
-						return true;
-				if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[n - 1], vy[n - 1], vx[0], vy[0]))
-					return true;
-				// expand it a bit to ensure that it intersects with this inner line
-				d = r0.getInnerDiameter() * (1 + indent);
-				perimeter = Math.PI * d;
-				n = (int) (perimeter / patchSize);
-				vx = new float[n];
-				vy = new float[n];
-				delta = (float) (2 * Math.PI / n);
-				d /= 2;
-				for (int i = 0; i < n; i++) {
-					theta = delta * i;
-					vx[i] = (float) (x + d * Math.cos(theta));
-					vy[i] = (float) (y + d * Math.sin(theta));
-				}
-				for (int i = 0; i < n - 1; i++)
-					if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[i], vy[i], vx[i + 1], vy[i + 1]))
-						return true;
-				if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[n - 1], vy[n - 1], vx[0], vy[0]))
-					return true;
-			}
+			if (n <= 0)
+				return new float[0];
+			d /= 2;
+			float[] lines = getClosedLines(x, y, d, d, n, new float[0]);
+			// expand it a bit to ensure that it intersects with this inner line
+			d = r0.getInnerDiameter() * (1 + indent);
+			perimeter = Math.PI * d;
+			d /= 2;
+			return getClosedLines(x, y, d, d, (int) (perimeter / patchSize), lines);
 
 		} else if (shape instanceof EllipticalAnnulus) {
 
@@ -534,51 +443,49 @@ public class Part extends Manipulable {
 			double outerPerimeter = Math.PI * (outerA + outerB) * (1 + 3 * h / (10 + Math.sqrt(4 - 3 * h)));
 			float patchSize = model.getLx() * model.getPerimeterStepSize();
 			int n = (int) (outerPerimeter / patchSize);
-			if (n > 0) {
-				float[] vx = new float[n];
-				float[] vy = new float[n];
-				float theta;
-				float delta = (float) (2 * Math.PI / n);
-				for (int i = 0; i < n; i++) {
-					theta = delta * i;
-					vx[i] = (float) (x + outerA * Math.cos(theta));
-					vy[i] = (float) (y + outerB * Math.sin(theta));
-				}
-				for (int i = 0; i < n - 1; i++)
-					if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[i], vy[i], vx[i + 1], vy[i + 1]))
-						return true;
-				if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[n - 1], vy[n - 1], vx[0], vy[0]))
-					return true;
-				// expand it a bit to ensure that it intersects with this inner line
-				float innerA = r0.getInnerA() * (1 + indent);
-				float innerB = r0.getInnerB() * (1 + indent);
-				h = (innerA - innerB) / (innerA + innerB);
-				h *= h;
-				double innerPerimeter = Math.PI * (innerA + innerB) * (1 + 3 * h / (10 + Math.sqrt(4 - 3 * h)));
-				n = (int) (innerPerimeter / patchSize);
-				vx = new float[n];
-				vy = new float[n];
-				delta = (float) (2 * Math.PI / n);
-				for (int i = 0; i < n; i++) {
-					theta = delta * i;
-					vx[i] = (float) (x + innerA * Math.cos(theta));
-					vy[i] = (float) (y + innerB * Math.sin(theta));
-				}
-				for (int i = 0; i < n - 1; i++)
-					if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[i], vy[i], vx[i + 1], vy[i + 1]))
-						return true;
-				if (Line2D.linesIntersect(p1.x, p1.y, p2.x, p2.y, vx[n - 1], vy[n - 1], vx[0], vy[0]))
-					return true;
-			}
+			if (n <= 0)
+				return new float[0];
+			float[] lines = getClosedLines(x, y, outerA, outerB, n, new float[0]);
+			// expand it a bit to ensure that it intersects with this inner line
+			float innerA = r0.getInnerA() * (1 + indent);
+			float innerB = r0.getInnerB() * (1 + indent);
+			h = (innerA - innerB) / (innerA + innerB);
+			h *= h;
+			double innerPerimeter = Math.PI * (innerA + innerB) * (1 + 3 * h / (10 + Math.sqrt(4 - 3 * h)));
+			return getClosedLines(x, y, innerA, innerB, (int) (innerPerimeter / patchSize), lines);
 
 		}
 
-		return false;
+		return new float[0];
+
+	}
 
+	// append the n sides of the polygon inscribed in the ellipse centered at (x, y) with semi-axes a and b to the lines
+	private static float[] getClosedLines(float x, float y, float a, float b, int n, float[] lines) {
+		if (n <= 0)
+			return lines;
+		float[] vx = new float[n];
+		float[] vy = new float[n];
+		float theta;
+		float delta = (float) (2 * Math.PI / n);
+		for (int i = 0; i < n; i++) {
+			theta = delta * i;
+			vx[i] = (float) (x + a * Math.cos(theta));
+			vy[i] = (float) (y + b * Math.sin(theta));
+		}
+		int k = lines.length;
+		lines = Arrays.copyOf(lines, k + 4 * n);
+		for (int i = 0; i < n; i++) {
+			lines[k++] = vx[i];
+			lines[k++] = vy[i];
+			lines[k++] = vx[(i + 1) % n];
+			lines[k++] = vy[(i + 1) % n];
+		}
+		return lines;
 	}
 
 	boolean reflect(Discrete p, boolean scatter) {
-		float dt = model.getTimeStep();
+		float dt = model.getCurrentTimeStep();
 		float predictedX = p.getRx() + p.getVx() * dt;
 		float predictedY = p.getRy() + p.getVy() * dt;
 		if (p instanceof Particle) {
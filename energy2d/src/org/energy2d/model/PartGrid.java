@@ -0,0 +1,198 @@
+package org.energy2d.model;
+
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records which parts cover which cells, so that the engine can look them up instead of testing every part.
+ *
+ * The ownership follows the grid points, with the same round-off tolerance as the material arrays: each cell has the list of the parts that cover its grid point, in the order of the parts (from the bottom to the top), and the topmost of them owns the cell.
+ *
+ * Photons and particles move between the grid points and may hit a part thinner than a cell, so for them each cell also lists the parts whose bounding boxes overlap the cell. These candidates are only a filter: the exact tests are left to the parts.
+ *
+ * The model builds a new grid when parts are added or removed or the grid changes, and calls update(...) when a single part is moved or reshaped, which changes only the lists of the cells that the part covered or covers. The lists of a cell are replaced, never
+ * changed, so a solver reading the grid while a part is dragged sees either the old or the new list of a cell. Cells with the same list share it.
+ *
+ * @author Charles Xie
+ *
+ */
+class PartGrid {
+
+	private final static int[] NONE = new int[0];
+
+	final int nx, ny;
+	final float deltaX, deltaY;
+	private final Part[] parts;
+	private final ShapeRasterizer rasterizer;
+
+	// ownership of the grid points: the indices (in parts) of the parts covering cell m = i * ny + j, in ascending order
+	private final int[][] overlaps;
+	private final CellSpans[] spans;
+
+	// candidates by bounding box: the indices (in parts) of the parts overlapping cell m, in ascending order
+	private final int[][] buckets;
+	private final int[] ranges; // the columns and the rows (first and last) of the cells that the box of each part overlaps
+
+	PartGrid(List<Part> list, ShapeRasterizer rasterizer, int nx, int ny, float deltaX, float deltaY) {
+		this.nx = nx;
+		this.ny = ny;
+		this.deltaX = deltaX;
+		this.deltaY = deltaY;
+		this.rasterizer = rasterizer;
+		parts = list.toArray(new Part[list.size()]);
+		overlaps = new int[nx * ny][];
+		buckets = new int[nx * ny][];
+		Arrays.fill(overlaps, NONE);
+		Arrays.fill(buckets, NONE);
+		spans = new CellSpans[parts.length];
+		ranges = new int[4 * parts.length];
+		for (int p = 0; p < parts.length; p++) {
+			spans[p] = rasterize(parts[p]);
+			setRange(p);
+			paint(p, true);
+		}
+	}
+
+	/** @return the index of the part in this grid, or -1 if it is not in the grid */
+	int indexOf(Part part) {
+		for (int p = 0; p < parts.length; p++) {
+			if (parts[p] == part)
+				return p;
+		}
+		return -1;
+	}
+
+	/** the shape of the part has changed: move it from the cells it covered to the cells it covers now */
+	void update(Part part) {
+		int p = indexOf(part);
+		if (p < 0)
+			return;
+		paint(p, false);
+		spans[p] = rasterize(part);
+		setRange(p);
+		paint(p, true);
+	}
+
+	private CellSpans rasterize(Part part) {
+		return rasterizer.rasterize(part.getShape(), nx, ny, deltaX, deltaY, false);
+	}
+
+	private void setRange(int p) {
+		Rectangle2D r = parts[p].getShape().getBounds2D(); // a cell of margin absorbs the round-off of the polygonized outlines that the parts reflect from
+		ranges[4 * p] = column(r.getMinX() - deltaX);
+		ranges[4 * p + 1] = column(r.getMaxX() + deltaX);
+		ranges[4 * p + 2] = row(r.getMinY() - deltaY);
+		ranges[4 * p + 3] = row(r.getMaxY() + deltaY);
+	}
+
+	// add part p to (or remove it from) the lists of the cells it covers and of the cells its box overlaps
+	private void paint(int p, boolean add) {
+		CellSpans s = spans[p];
+		int j;
+		Map<int[], int[]> replacements = new IdentityHashMap<>(); // the cells that shared a list share its replacement too
+		for (int k = 0; k < s.count; k++) {
+			j = s.rows[k];
+			for (int i = s.starts[k]; i < s.ends[k]; i++)
+				overlaps[i * ny + j] = change(overlaps[i * ny + j], p, add, replacements);
+		}
+		replacements.clear();
+		for (int i = ranges[4 * p]; i <= ranges[4 * p + 1]; i++) {
+			for (j = ranges[4 * p + 2]; j <= ranges[4 * p + 3]; j++)
+				buckets[i * ny + j] = change(buckets[i * ny + j], p, add, replacements);
+		}
+	}
+
+	// a copy of the list with p inserted in order (or removed)
+	private static int[] change(int[] a, int p, boolean add, Map<int[], int[]> replacements) {
+		int[] b = replacements.get(a);
+		if (b != null)
+			return b;
+		int k = 0;
+		while (k < a.length && a[k] < p)
+			k++;
+		if (add) {
+			b = new int[a.length + 1];
+			System.arraycopy(a, 0, b, 0, k);
+			b[k] = p;
+			System.arraycopy(a, k, b, k + 1, a.length - k);
+		} else {
+			if (k == a.length || a[k] != p)
+				return a;
+			b = a.length == 1 ? NONE : new int[a.length - 1];
+			System.arraycopy(a, 0, b, 0, k);
+			System.arraycopy(a, k + 1, b, k, a.length - k - 1);
+		}
+		replacements.put(a, b);
+		return b;
+	}
+
+	int getPartCount() {
+		return parts.length;
+	}
+
+	Part getPart(int index) {
+		return parts[index];
+	}
+
+	/** @return the topmost part covering the grid point of cell (i, j), or null */
+	Part getOwner(int i, int j) {
+		int[] a = overlaps[i * ny + j];
+		return a.length > 0 ? parts[a[a.length - 1]] : null;
+	}
+
+	/** @return the number of parts covering the grid point of cell m = i * ny + j */
+	int getOverlapCount(int m) {
+		return overlaps[m].length;
+	}
+
+	/** @return the k-th part (from the bottom) covering the grid point of cell m = i * ny + j */
+	Part getOverlap(int m, int k) {
+		return parts[overlaps[m][k]];
+	}
+
+	/**
+	 * Find the parts whose bounding boxes may contain a point of the rectangle from (x0, y0) to (x1, y1).
+	 *
+	 * @param candidates
+	 *            receives the indices of the parts, in ascending order, and must be able to hold all the parts
+	 * @return the number of candidates
+	 */
+	int findCandidates(float x0, float y0, float x1, float y1, int[] candidates) {
+		int i0 = column(Math.min(x0, x1)), i1 = column(Math.max(x0, x1));
+		int j0 = row(Math.min(y0, y1)), j1 = row(Math.max(y0, y1));
+		int n = 0, k;
+		int[] bucket;
+		for (int i = i0; i <= i1; i++) {
+			for (int j = j0; j <= j1; j++) {
+				bucket = buckets[i * ny + j];
+				for (int c : bucket) {
+					for (k = 0; k < n; k++) { // there are only a few, so keep them sorted by insertion
+						if (candidates[k] >= c)
+							break;
+					}
+					if (k < n && candidates[k] == c)
+						continue;
+					System.arraycopy(candidates, k, candidates, k + 1, n - k);
+					candidates[k] = c;
+					n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	// the column of the cell (not the grid point) that contains x, clamped to the grid
+	private int column(double x) {
+		int i = (int) Math.floor(x / deltaX);
+		return i < 0 ? 0 : (i >= nx ? nx - 1 : i);
+	}
+
+	private int row(double y) {
+		int j = (int) Math.floor(y / deltaY);
+		return j < 0 ? 0 : (j >= ny ? ny - 1 : j);
+	}
+
+}
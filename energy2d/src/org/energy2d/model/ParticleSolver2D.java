@@ -26,6 +26,8 @@ class ParticleSolver2D {
 	private List<Particle> particles;
 	private float[][] u, v, t;
 	private List<Part> parts;
+	private PartGrid partGrid;
+	private int[] candidates = new int[0];
 	private float lx, ly;
 	private int nx, ny;
 
@@ -38,6 +40,11 @@ class ParticleSolver2D {
 	public ParticleSolver2D(Model2D model) {
 		particles = model.getParticles();
 		parts = model.getParts();
+		setGrid(model);
+	}
+
+	// called again when the grid resolution of the model changes
+	void setGrid(Model2D model) {
 		u = model.getXVelocity();
 		v = model.getYVelocity();
 		t = model.getTemperature();
@@ -48,10 +55,13 @@ class ParticleSolver2D {
 	void move(Model2D model) {
 		lx = model.getLx();
 		ly = model.getLy();
-		timeStep = model.getTimeStep();
+		timeStep = model.getCurrentTimeStep();
 		convective = model.isConvective();
 		float fluidDensity = model.getBackgroundDensity();
 		float fluidConductivity = model.getBackgroundConductivity();
+		partGrid = model.getPartGrid();
+		if (candidates.length < partGrid.getPartCount())
+			candidates = new int[partGrid.getPartCount()];
 		synchronized (particles) {
 			for (Iterator<Particle> it = particles.iterator(); it.hasNext();) {
 				Particle p = it.next();
@@ -142,10 +152,15 @@ class ParticleSolver2D {
 		}
 	}
 
+	// only the parts whose bounding boxes come within the radius of the path of the particle in this step can reflect it
 	private void interactWithParts(Particle p) {
+		float dt2 = timeStep * timeStep * 0.5f;
+		float predictedX = p.rx + p.vx * timeStep + p.ax * dt2;
+		float predictedY = p.ry + p.vy * timeStep + p.ay * dt2;
 		synchronized (parts) {
-			for (Part part : parts) {
-				if (part.reflect(p, false))
+			int n = partGrid.findCandidates(Math.min(p.rx, predictedX) - p.radius, Math.min(p.ry, predictedY) - p.radius, Math.max(p.rx, predictedX) + p.radius, Math.max(p.ry, predictedY) + p.radius, candidates);
+			for (int k = 0; k < n; k++) {
+				if (partGrid.getPart(candidates[k]).reflect(p, false))
 					break;
 			}
 		}
@@ -77,7 +77,7 @@ class PhotonSolver2D {
 			return;
 		Photon p;
 		float timeStep = model.getTimeStep();
-		// Since a photon is emitted at a given interval, its energy has to be divided evenly for internal power generation at each second. The following factor takes this into account.
+		// Since a photon is emitted at a given interval, its energy has to be divided evenly for internal power generation at each second. The following factor takes this into account (the interval counts the time steps set by the user, even if the adaptive mode is stepping differently).
 		float factor = 1.0f / (timeStep * model.getPhotonEmissionInterval());
 		float idx = 1.0f / deltaX;
 		float idy = 1.0f / deltaY;
@@ -85,14 +85,22 @@ class PhotonSolver2D {
 		int nx = q.length - 1;
 		int ny = q[0].length - 1;
 		boolean remove = false;
+		PartGrid grid = model.getPartCount() > 0 ? model.getPartGrid() : null;
+		int[] candidates = grid != null ? new int[grid.getPartCount()] : null;
+		int candidateCount;
+		float dt;
+		Part part;
 		synchronized (photons) {
 			for (Iterator<Photon> it = photons.iterator(); it.hasNext();) {
 				p = it.next();
-				p.move(timeStep);
+				p.move(model.getCurrentTimeStep());
 				remove = false;
-				if (model.getPartCount() > 0) {
+				if (grid != null) { // only the parts whose bounding boxes meet the path of the photon in this step can interact with it
+					dt = model.getCurrentTimeStep();
+					candidateCount = grid.findCandidates(p.getRx(), p.getRy(), p.getRx() + p.getVx() * dt, p.getRy() + p.getVy() * dt, candidates);
 					synchronized (model.getParts()) {
-						for (Part part : model.getParts()) {
+						for (int k = 0; k < candidateCount; k++) {
+							part = grid.getPart(candidates[k]);
 							if (part.getScattering()) {
 								if (part.isScatteringVisible()) {
 									if (part.reflect(p, true))
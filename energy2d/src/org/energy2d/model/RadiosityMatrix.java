@@ -0,0 +1,34 @@
+package org.energy2d.model;
+
+/**
+ * The reflection and absorption matrices of the radiosity equation, stored in compressed sparse rows as most pairs of segments cannot see each other.
+ *
+ * Both matrices have elements only for the pairs that see each other, so they share their structure: the elements of row i are at k = rowStart[i] to rowStart[i + 1] - 1, in the ascending order of their columns columns[k], with the values reflection[k] and
+ * absorption[k]. The diagonal is not stored: a segment cannot see itself, so the reflection matrix has ones there and the absorption matrix zeros.
+ *
+ * A matrix is never changed after it is built.
+ *
+ * @author Charles Xie
+ *
+ */
+class RadiosityMatrix {
+
+	final int size;
+	final int[] rowStart;
+	final int[] columns;
+	final float[] reflection, absorption;
+
+	RadiosityMatrix(int[] rowStart, int[] columns, float[] reflection, float[] absorption) {
+		this.size = rowStart.length - 1;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.reflection = reflection;
+		this.absorption = absorption;
+	}
+
+	/** @return the number of off-diagonal elements stored */
+	int getElementCount() {
+		return columns.length;
+	}
+
+}
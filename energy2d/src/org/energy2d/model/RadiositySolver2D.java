@@ -3,11 +3,22 @@ package org.energy2d.model;
 import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.energy2d.math.Blob2D;
 import org.energy2d.math.EllipticalAnnulus;
@@ -22,12 +33,24 @@ import org.energy2d.math.Annulus;
  */
 class RadiositySolver2D {
 
+	// the matrices of the recent meshes, shared by all the models as they depend only on the key
+	final static ViewFactorCache CACHE = new ViewFactorCache(8);
+
 	private Model2D model;
 	private List<Segment> segments = Collections.synchronizedList(new ArrayList<Segment>());
+	// the segments of each part and the polygons they outline, rebuilt with the mesh for the visibility tests
+	private Map<Part, List<Segment>> partSegments = new HashMap<Part, List<Segment>>();
+	private Map<Part, Path2D.Float> outlines = new HashMap<Part, Path2D.Float>();
+	private OcclusionTree occluders; // the lines that block radiation, rebuilt with the mesh (null if no part is opaque)
 	private float patchSize;
 	private float patchSizePercentage = 0.05f;
-	private float[][] reflection, absorption;
-	private int relaxationSteps = 2; // relaxation may not be needed much as we are already solving a time-dependent problem
+	private RadiosityMatrix matrix;
+	private String key; // the key of the matrices in the cache, or null if the mesh is empty
+	// the mesh as an array and the power densities (W/m^2) of its segments, which the solver works on and copies to the segments after each solve
+	private Segment[] mesh = new Segment[0];
+	private float[] radiation = new float[0], emission = new float[0], absorption = new float[0];
+	private ConvergenceController convergence = new ConvergenceController(Model2D.DEFAULT_RADIOSITY_SWEEPS);
+	private float residual; // the largest residual left by the last solve, relative to the largest emission
 
 	RadiositySolver2D(Model2D model) {
 		this.model = model;
@@ -44,6 +67,14 @@ class RadiositySolver2D {
 	void reset() {
 	}
 
+	ConvergenceController getConvergenceController() {
+		return convergence;
+	}
+
+	float getResidual() {
+		return residual;
+	}
+
 	float measure(HeatFluxSensor sensor) {
 		float measurement = 0f;
 		float dx = patchSize * 0.5f * (float) Math.cos(-sensor.getAngle());
@@ -53,12 +84,14 @@ class RadiositySolver2D {
 		float y1 = sensor.getY() - dy;
 		float y2 = sensor.getY() + dy;
 		Segment ss = new Segment(x1, y1, x2, y2, null);
-		for (Segment s : segments) {
-			if (isVisible(s, ss)) {
-				float vf = s.getViewFactor(ss);
+		Segment[] s = mesh;
+		float[] radiation = this.radiation;
+		for (int i = 0; i < s.length; i++) {
+			if (isVisible(s[i], ss)) {
+				float vf = s[i].getViewFactor(ss);
 				if (vf > 1) // FIXME: Why is our view factor larger than 1 when two patches are very close?
 					vf = 1;
-				measurement += s.radiation * vf;
+				measurement += radiation[i] * vf;
 			}
 		}
 		return measurement;
@@ -66,16 +99,20 @@ class RadiositySolver2D {
 
 	void solve() {
 
-		int n = segments.size();
+		int n = mesh.length;
 		if (n <= 0)
 			return;
 
 		Segment s;
 		synchronized (segments) {
 
+			RadiosityMatrix a = matrix;
+			float[] radiation = this.radiation, emission = this.emission, absorption = this.absorption;
+			int[] rowStart = a.rowStart, columns = a.columns;
+
 			// compute emission of each segment using Stefan's Law (offset by the background radiation)
 			for (int i = 0; i < n; i++) {
-				s = segments.get(i);
+				s = mesh[i];
 				if (s.getPart().getEmissivity() > 0) {
 					Point2D.Float c = s.getCenter();
 					float temp;
@@ -85,35 +122,46 @@ class RadiositySolver2D {
 						temp = model.getTemperatureAt(c.x, c.y, Sensor.NINE_POINT) + 273; // FIXME: This needs to take the stencil points inwardly
 					}
 					temp *= temp;
-					s.emission = s.getPart().getEmissivity() * Model2D.STEFAN_CONSTANT * temp * temp;
+					emission[i] = s.getPart().getEmissivity() * Model2D.STEFAN_CONSTANT * temp * temp;
 					temp = model.getBackgroundTemperature() + 273;
 					temp *= temp;
-					s.emission -= s.getPart().getEmissivity() * Model2D.STEFAN_CONSTANT * temp * temp;
+					emission[i] -= s.getPart().getEmissivity() * Model2D.STEFAN_CONSTANT * temp * temp;
 				}
 			}
 
-			// apply Gauss-Seidel relaxation to get outgoing radiation for each segment (solving the radiosity matrix equation)
-			for (int k = 0; k < relaxationSteps; k++) {
+			// apply Gauss-Seidel relaxation to get outgoing radiation for each segment (solving the radiosity matrix equation, whose diagonal is one)
+			// until it converges, starting from the radiation of the last solve: the temperatures change little between two solves, so it only takes a few sweeps
+			float r, maxChange, maxEmission = 0;
+			for (int i = 0; i < n; i++)
+				maxEmission = Math.max(maxEmission, Math.abs(emission[i]));
+			float[] reflection = a.reflection;
+			convergence.resetIterations();
+			for (int k = 0;; k++) {
+				maxChange = 0;
 				for (int i = 0; i < n; i++) {
-					s = segments.get(i);
-					s.radiation = s.emission;
-					for (int j = 0; j < n; j++) {
-						if (j != i)
-							s.radiation -= reflection[i][j] * segments.get(j).radiation;
-					}
-					s.radiation /= reflection[i][i];
+					r = emission[i];
+					for (int e = rowStart[i]; e < rowStart[i + 1]; e++)
+						r -= reflection[e] * radiation[columns[e]];
+					maxChange = Math.max(maxChange, Math.abs(r - radiation[i]));
+					radiation[i] = r;
 				}
+				if (convergence.isConverged(k, maxChange, maxEmission)) // the diagonal is one, so the residual is the change
+					break;
 			}
 
-			// get the radiation from other segments that ends up being absorbed by each segment
+			// get the radiation from other segments that ends up being absorbed by each segment, and check the residual of the solution in the same pass
+			float[] absorptionMatrix = a.absorption;
+			float maxResidual = 0;
 			for (int i = 0; i < n; i++) {
-				s = segments.get(i);
-				s.absorption = 0;
-				for (int j = 0; j < n; j++) {
-					if (j != i)
-						s.absorption += absorption[i][j] * segments.get(j).radiation;
+				absorption[i] = 0;
+				r = emission[i] - radiation[i];
+				for (int e = rowStart[i]; e < rowStart[i + 1]; e++) {
+					absorption[i] += absorptionMatrix[e] * radiation[columns[e]];
+					r -= reflection[e] * radiation[columns[e]];
 				}
+				maxResidual = Math.max(maxResidual, Math.abs(r));
 			}
+			residual = maxEmission > 0 ? maxResidual / maxEmission : 0;
 
 			float gx = model.getNx() / model.getLx();
 			float gy = model.getNy() / model.getLy();
@@ -121,17 +169,20 @@ class RadiositySolver2D {
 			float length;
 			float dx, dy;
 			for (int i = 0; i < n; i++) {
-				s = segments.get(i);
+				s = mesh[i];
+				s.radiation = radiation[i];
+				s.emission = emission[i];
+				s.absorption = absorption[i];
 				length = s.length();
 				int m = (int) (length * Math.max(gx, gy));
 				if (m > 1) {
-					power = (s.absorption - s.emission) / (m - 1);
+					power = (absorption[i] - emission[i]) / (m - 1);
 					// equally divide and add energy to the power density array (the last round of radiation energy has been stored as thermal energy by the heat solver)
 					dx = (s.x2 - s.x1) / m;
 					dy = (s.y2 - s.y1) / m;
 					// somehow we have to bypass the end points to avoid duplicating energy around a corner
-					for (int a = 1; a < m; a++)
-						model.changePowerAt(s.x1 + dx * a, s.y1 + dy * a, power);
+					for (int b = 1; b < m; b++)
+						model.changePowerAt(s.x1 + dx * b, s.y1 + dy * b, power);
 				}
 			}
 
@@ -140,33 +191,73 @@ class RadiositySolver2D {
 	}
 
 	// populate the reflection matrix and the absorption matrix using visibility and view factors
-	private void computeReflectionAndAbsorptionMatrices() {
-		int n = segments.size();
+	private RadiosityMatrix computeReflectionAndAbsorptionMatrices(Segment[] s) {
+		int n = s.length;
+		// find the pairs (i, j > i) that see each other row by row: no two rows share anything, so they can be found concurrently
+		int[][] visibleColumns = new int[n][];
+		float[][] viewFactors = new float[n][];
+		model.getSweeper().forEach(0, n, i -> computeRow(i, s, visibleColumns, viewFactors));
+
+		// each pair is an element of both its rows, the one in the lower row comes after the elements it already has from the rows above
+		int[] rowStart = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			rowStart[i + 1] += visibleColumns[i].length;
+			for (int j : visibleColumns[i])
+				rowStart[j + 1]++;
+		}
+		for (int i = 0; i < n; i++)
+			rowStart[i + 1] += rowStart[i];
+		int[] columns = new int[rowStart[n]];
+		float[] reflection = new float[rowStart[n]];
+		float[] absorption = new float[rowStart[n]];
+		int[] fill = Arrays.copyOf(rowStart, n);
 		Segment s1, s2;
 		float vf;
+		int j, e;
 		for (int i = 0; i < n; i++) {
-			for (int j = 0; j < n; j++) {
-				reflection[i][j] = i == j ? 1 : 0; // the diagonal elements must be one because a segment is a line (hence the view factor must be zero)
-				absorption[i][j] = 0; // the diagonal elements must be zero as a segment cannot absorb its own radiation
+			s1 = s[i];
+			for (int k = 0; k < visibleColumns[i].length; k++) {
+				j = visibleColumns[i][k];
+				s2 = s[j];
+				vf = viewFactors[i][k];
+				// the order of s1 and s2 is important below
+				float lengthRatio = s1.length() / s2.length(); // apply the reciprocity rule
+				e = fill[i]++;
+				columns[e] = j;
+				reflection[e] = -s1.getPart().getReflectivity() * vf;
+				absorption[e] = s1.getPart().getAbsorptivity() * vf;
+				e = fill[j]++;
+				columns[e] = i;
+				reflection[e] = -s2.getPart().getReflectivity() * vf * lengthRatio;
+				absorption[e] = s2.getPart().getAbsorptivity() * vf * lengthRatio;
 			}
 		}
-		for (int i = 0; i < n - 1; i++) {
-			s1 = segments.get(i);
-			for (int j = i + 1; j < n; j++) {
-				s2 = segments.get(j);
-				if (isVisible(s1, s2)) {
-					vf = s1.getViewFactor(s2);
-					if (vf > 1) // FIXME: Why is our view factor larger than 1 when two patches are very close?
-						vf = 1;
-					// the order of s1 and s2 is important below
-					float lengthRatio = s1.length() / s2.length(); // apply the reciprocity rule
-					reflection[i][j] = -s1.getPart().getReflectivity() * vf;
-					reflection[j][i] = -s2.getPart().getReflectivity() * vf * lengthRatio;
-					absorption[i][j] = s1.getPart().getAbsorptivity() * vf;
-					absorption[j][i] = s2.getPart().getAbsorptivity() * vf * lengthRatio;
+		return new RadiosityMatrix(rowStart, columns, reflection, absorption);
+	}
+
+	// find the segments after segment i that it can see and their view factors (a pair with a zero view factor exchanges nothing, so it is left out)
+	private void computeRow(int i, Segment[] s, int[][] visibleColumns, float[][] viewFactors) {
+		int n = s.length;
+		int[] columns = new int[n - i - 1];
+		float[] factors = new float[n - i - 1];
+		int count = 0;
+		Segment s1 = s[i], s2;
+		float vf;
+		for (int j = i + 1; j < n; j++) {
+			s2 = s[j];
+			if (isVisible(s1, s2)) {
+				vf = s1.getViewFactor(s2);
+				if (vf > 1) // FIXME: Why is our view factor larger than 1 when two patches are very close?
+					vf = 1;
+				if (vf != 0) {
+					columns[count] = j;
+					factors[count] = vf;
+					count++;
 				}
 			}
 		}
+		visibleColumns[i] = Arrays.copyOf(columns, count);
+		viewFactors[i] = Arrays.copyOf(factors, count);
 	}
 
 	void segmentizePerimeters() {
@@ -177,16 +268,115 @@ class RadiositySolver2D {
 				continue;
 			segmentizePerimeter(part);
 		}
-		int n = segments.size();
-		reflection = new float[n][n];
-		absorption = new float[n][n];
-		computeReflectionAndAbsorptionMatrices();
+		partSegments.clear();
+		outlines.clear();
+		for (Segment s : segments) {
+			List<Segment> list = partSegments.get(s.getPart());
+			if (list == null) {
+				list = new ArrayList<Segment>();
+				partSegments.put(s.getPart(), list);
+			}
+			list.add(s);
+		}
+		for (Map.Entry<Part, List<Segment>> e : partSegments.entrySet()) {
+			List<Segment> list = e.getValue();
+			Path2D.Float path = new Path2D.Float();
+			Segment s = list.get(0);
+			path.moveTo(s.x1, s.y1);
+			for (int i = 0; i < list.size(); i++) {
+				s = list.get(i);
+				path.lineTo(s.x2, s.y2);
+			}
+			path.closePath();
+			outlines.put(e.getKey(), path);
+		}
+		List<Part> opaque = getOpaqueParts();
+		occluders = opaque.isEmpty() ? null : new OcclusionTree(opaque);
+		Segment[] s = segments.toArray(new Segment[segments.size()]);
+		int n = s.length;
+		if (n > 0) {
+			key = getKey(s, opaque);
+			RadiosityMatrix m = CACHE.get(key, n);
+			if (m == null) {
+				m = computeReflectionAndAbsorptionMatrices(s);
+				CACHE.put(key, m);
+			}
+			matrix = m;
+		} else {
+			key = null;
+			matrix = computeReflectionAndAbsorptionMatrices(s);
+		}
+		radiation = new float[n];
+		emission = new float[n];
+		absorption = new float[n];
+		mesh = s;
+	}
+
+	// a digest of everything the matrices depend on: the patch size, the length and the grid of the domain (the visibility tests use them), the shapes and the optical properties of the opaque parts, and the segments
+	private String getKey(Segment[] s, List<Part> opaque) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * opaque.size() + 20 * s.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		Map<Part, Integer> index = new IdentityHashMap<Part, Integer>();
+		try {
+			out.writeFloat(patchSizePercentage);
+			out.writeFloat(model.getLx());
+			out.writeInt(model.getNx());
+			out.writeInt(opaque.size());
+			double[] c = new double[6];
+			int type, n;
+			for (Part part : opaque) {
+				index.put(part, index.size());
+				Shape shape = part.getShape();
+				out.writeUTF(shape.getClass().getName());
+				for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+					type = it.currentSegment(c);
+					out.writeByte(type);
+					n = type == PathIterator.SEG_QUADTO ? 4 : (type == PathIterator.SEG_CUBICTO ? 6 : (type == PathIterator.SEG_CLOSE ? 0 : 2));
+					for (int k = 0; k < n; k++)
+						out.writeDouble(c[k]);
+				}
+				out.writeFloat(part.getReflectivity());
+				out.writeFloat(part.getAbsorptivity());
+			}
+			out.writeInt(s.length);
+			for (Segment x : s) {
+				out.writeFloat(x.x1);
+				out.writeFloat(x.y1);
+				out.writeFloat(x.x2);
+				out.writeFloat(x.y2);
+				out.writeInt(index.get(x.getPart()));
+			}
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+			StringBuilder sb = new StringBuilder(2 * digest.length);
+			for (byte b : digest)
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			return sb.toString();
+		} catch (IOException | NoSuchAlgorithmException e) { // neither can happen: the stream is in memory and every Java platform has SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+
+	// keep the matrices of the current mesh on the disk, if the cache has a directory
+	void saveMesh() {
+		if (key != null)
+			CACHE.save(key, matrix);
 	}
 
 	List<Segment> getSegments() {
 		return segments;
 	}
 
+	/** @return the segments of the part in the order they go around its perimeter */
+	List<Segment> getSegments(Part part) {
+		List<Segment> list = partSegments.get(part);
+		return list != null ? list : Collections.<Segment> emptyList();
+	}
+
+	/** @return the polygon outlined by the segments of the part, or null if it has none */
+	Shape getOutline(Part part) {
+		return outlines.get(part);
+	}
+
 	private void segmentizePerimeter(Part part) {
 
 		Shape shape = part.getShape();
@@ -414,13 +604,62 @@ class RadiositySolver2D {
 
 	// can the two segments see each other?
 	boolean isVisible(Segment s1, Segment s2) {
-		for (Part part : model.getParts()) {
-			if (part.getTransmissivity() > 0.9999) // TODO: We just handle the complete transparent case here
-				continue;
-			if (part.intersectsLine(s1, s2))
+		OcclusionTree tree = occluders;
+		if (tree == null)
+			return true;
+
+		// the centers of the two segments (no temporary objects, this runs concurrently for all the pairs when the mesh is generated)
+		float p1x = 0.5f * (s1.x1 + s1.x2), p1y = 0.5f * (s1.y1 + s1.y2);
+		float p2x = 0.5f * (s2.x1 + s2.x2), p2y = 0.5f * (s2.y1 + s2.y2);
+		if (Point2D.distanceSq(p1x, p1y, p2x, p2y) < 0.000001f * model.getLx())
+			return false;
+
+		// the perimeters of polygons and blobs are not indented, so shorten the line of sight a bit instead
+		float delta = model.getLx() / model.getNx();
+		float indent = 0.001f * delta;
+		float x3 = p1x, y3 = p1y, x4 = p2x, y4 = p2y;
+		if (Math.abs(p1x - p2x) < indent) {
+			delta = Math.signum(p2y - p1y) * indent;
+			y3 += delta;
+			y4 -= delta;
+		} else if (Math.abs(p1y - p2y) < indent) {
+			delta = Math.signum(p2x - p1x) * indent;
+			x3 += delta;
+			x4 -= delta;
+		} else {
+			float k = (p2y - p1y) / (p2x - p1x);
+			delta = Math.signum(p2x - p1x) * indent;
+			x3 += delta;
+			x4 -= delta;
+			y3 = p1y + k * (x3 - p1x);
+			y4 = p1y + k * (x4 - p1x);
+		}
+
+		Part part = s1.getPart();
+		if (part != null && part == s2.getPart()) {
+			Shape shape = part.getShape();
+			if (shape instanceof Rectangle2D.Float || shape instanceof Ellipse2D.Float) // the segments of a convex part cannot see each other
 				return false;
+			if (shape instanceof Polygon2D || shape instanceof Blob2D) { // those of a concave part cannot see each other through the inside
+				Shape outline = shape instanceof Blob2D ? getOutline(part) : shape; // we will have to use the approximated polygon instead of the blob
+				if (outline.contains(x3, y3) || outline.contains(x4, y4))
+					return false;
+			}
+		}
+
+		return !tree.intersects(p1x, p1y, p2x, p2y, x3, y3, x4, y4);
+	}
+
+	// the parts that block radiation
+	private List<Part> getOpaqueParts() {
+		List<Part> list = new ArrayList<Part>();
+		synchronized (model.getParts()) {
+			for (Part part : model.getParts()) {
+				if (part.getTransmissivity() <= 0.9999) // TODO: We just handle the complete transparent case here
+					list.add(part);
+			}
 		}
-		return true;
+		return list;
 	}
 
 }
@@ -0,0 +1,166 @@
+package org.energy2d.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs one Gauss-Seidel sweep over the interior of a grid. With a single worker, the cells are visited in the usual lexicographic order on the calling thread. With more workers, the sweep uses red-black (checkerboard) ordering: all the red cells are relaxed first, then all the black ones. As a cell of one colour only depends on neighbors of the other colour, each colour can be split into bands of columns (the outer index of our arrays) that are relaxed in parallel by a fork-join pool.
+ *
+ * The other loops of the model whose iterations are independent (the lines of the ADI solver, the traces of the semi-Lagrangian advection and the rows of the radiosity matrices) run on the same pool through forEach(...), so that the number of workers set for the model
+ * bounds all of its threads.
+ *
+ * @author Charles Xie
+ *
+ */
+class RelaxationSweeper {
+
+	final static int LEXICOGRAPHIC = -1;
+
+	/**
+	 * Relaxes the cells in columns [iStart, iEnd) of the given colour (0 or 1 for cells whose i + j is even or odd, or LEXICOGRAPHIC for all cells in order), and folds the largest change and the largest absolute value into stats[0] and stats[1].
+	 */
+	interface Kernel {
+		void relax(int iStart, int iEnd, int colour, float[] stats);
+	}
+
+	/*
+	 * The pool and the scratch of the bands for a number of workers. They are replaced together, and a sweep reads them once, so that changing the number of workers from another thread (e.g. the script console) never leaves a running sweep with a mix of the two.
+	 * A replaced pool is shut down only when the last sweep or loop using it has finished.
+	 */
+	private static class Workers {
+
+		final int count;
+		final ForkJoinPool pool;
+		final float[][] bandStats;
+		final ForkJoinTask<?>[] bands;
+		final AtomicInteger users = new AtomicInteger();
+		volatile boolean retired;
+
+		Workers(int count) {
+			this.count = count;
+			pool = count > 1 ? new ForkJoinPool(count) : null;
+			bandStats = count > 1 ? new float[count][2] : null;
+			bands = count > 1 ? new ForkJoinTask<?>[count] : null;
+		}
+
+		void shutdownIfUnused() {
+			if (retired && users.get() == 0 && pool != null)
+				pool.shutdown();
+		}
+
+	}
+
+	private volatile Workers workers = new Workers(1);
+
+	synchronized void setWorkers(int count) {
+		count = Math.max(1, count);
+		Workers old = workers;
+		if (count == old.count)
+			return;
+		workers = new Workers(count);
+		old.retired = true;
+		old.shutdownIfUnused();
+	}
+
+	int getWorkers() {
+		return workers.count;
+	}
+
+	// the current workers, which cannot be shut down until they are released
+	private Workers acquire() {
+		while (true) {
+			Workers w = workers;
+			w.users.incrementAndGet();
+			if (w == workers)
+				return w;
+			release(w); // replaced in the meantime
+		}
+	}
+
+	private static void release(Workers w) {
+		if (w.users.decrementAndGet() == 0)
+			w.shutdownIfUnused();
+	}
+
+	/** @return the first row j >= 1 of the given colour in column i */
+	static int firstRow(int i, int colour) {
+		if (colour == LEXICOGRAPHIC)
+			return 1;
+		return ((i + 1) & 1) == colour ? 1 : 2;
+	}
+
+	/** @return the stride between relaxed rows in a column */
+	static int rowStride(int colour) {
+		return colour == LEXICOGRAPHIC ? 1 : 2;
+	}
+
+	/**
+	 * Run the action for each index from start to end - 1. The iterations must not depend on each other: with more than one worker, they are split into bands that run in parallel. This may be called from another thread while a sweep is running.
+	 */
+	void forEach(final int start, final int end, final IntConsumer action) {
+		int n = end - start;
+		Workers w = acquire();
+		try {
+			if (w.pool == null || n < 2) {
+				for (int k = start; k < end; k++)
+					action.accept(k);
+				return;
+			}
+			forEach(w.pool, start, n, action);
+		} finally {
+			release(w);
+		}
+	}
+
+	private static void forEach(ForkJoinPool pool, final int start, int n, final IntConsumer action) {
+		int count = Math.min(n, 4 * pool.getParallelism()); // a few bands per worker even out iterations of different costs
+		ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+		for (int b = 0; b < count; b++) {
+			final int kStart = start + (int) ((long) n * b / count);
+			final int kEnd = start + (int) ((long) n * (b + 1) / count);
+			tasks[b] = ForkJoinTask.adapt(() -> {
+				for (int k = kStart; k < kEnd; k++)
+					action.accept(k);
+			});
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
+	/**
+	 * Sweep columns 1 to nx1 - 1.
+	 */
+	void sweep(final int nx1, final Kernel kernel, float[] stats) {
+		stats[0] = stats[1] = 0;
+		int n = nx1 - 1;
+		Workers w = acquire();
+		try {
+			if (w.pool == null || n < 2 * w.count) {
+				kernel.relax(1, nx1, LEXICOGRAPHIC, stats);
+				return;
+			}
+			for (int colour = 0; colour < 2; colour++) {
+				for (int b = 0; b < w.count; b++) {
+					final int iStart = 1 + n * b / w.count;
+					final int iEnd = 1 + n * (b + 1) / w.count;
+					final int c = colour;
+					final float[] s = w.bandStats[b];
+					s[0] = s[1] = 0;
+					w.bands[b] = ForkJoinTask.adapt(() -> kernel.relax(iStart, iEnd, c, s));
+				}
+				ForkJoinTask<?>[] bands = w.bands;
+				w.pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(bands)));
+				for (float[] s : w.bandStats) {
+					if (s[0] > stats[0])
+						stats[0] = s[0];
+					if (s[1] > stats[1])
+						stats[1] = s[1];
+				}
+			}
+		} finally {
+			release(w);
+		}
+	}
+
+}
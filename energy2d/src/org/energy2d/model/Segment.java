@@ -55,19 +55,27 @@ public class Segment {
 		return new Point2D.Float(0.5f * (x1 + x2), 0.5f * (y1 + y2));
 	}
 
+	// computed from the coordinates without any temporary objects, as the view factors of all the pairs are computed concurrently when the mesh is generated
 	public float getViewFactor(Segment s) {
-		// calculate the center of this segment
-		Point2D.Float p1 = getCenter();
-		// calculate the center of the other segment
-		Point2D.Float p2 = s.getCenter();
-		Vector2D r = new Vector2D(p2.x - p1.x, p2.y - p1.y);
-		float r2 = r.x * r.x + r.y * r.y;
-		r.normalize();
-		Vector2D n1 = getNormalVector();
-		n1.normalize();
-		Vector2D n2 = s.getNormalVector();
-		n2.normalize();
-		float dot = -r.dotProduct(n1) * r.dotProduct(n2);
+		// the vector between the centers of the two segments
+		float rx = 0.5f * (s.x1 + s.x2) - 0.5f * (x1 + x2);
+		float ry = 0.5f * (s.y1 + s.y2) - 0.5f * (y1 + y2);
+		float r2 = rx * rx + ry * ry;
+		float r = (float) Math.hypot(rx, ry);
+		if (r == 0)
+			throw new RuntimeException("vector cannot have zero length: (" + rx + ", " + ry + ")");
+		rx /= r;
+		ry /= r;
+		// the normal vectors of the two segments
+		float n1x = y1 - y2, n1y = x2 - x1;
+		r = (float) Math.hypot(n1x, n1y);
+		n1x /= r;
+		n1y /= r;
+		float n2x = s.y1 - s.y2, n2y = s.x2 - s.x1;
+		r = (float) Math.hypot(n2x, n2y);
+		n2x /= r;
+		n2y /= r;
+		float dot = -(rx * n1x + ry * n1y) * (rx * n2x + ry * n2y);
 		dot = Math.abs(dot); // Force this to be positive because sometimes the normal vectors might not point outwards
 		return dot * s.length() / (float) (Math.PI * Math.sqrt(r2)); // view factor equation is different in 2D
 	}
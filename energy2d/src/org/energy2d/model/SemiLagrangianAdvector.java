@@ -0,0 +1,102 @@
+package org.energy2d.model;
+
+/**
+ * Semi-Lagrangian advection: the new value of a cell is the old field interpolated (bilinearly) at the point the flow carried to the cell center during the time step. Unlike the explicit MacCormack scheme, this does not blow up when the flow crosses more than one cell per
+ * step, so strong fans or buoyancy no longer dictate the time step.
+ *
+ * A plain backtrace smears sharp fronts. The corrected variant (the modified MacCormack scheme of Selle et al.) traces the result back again to estimate the error of the first trace and removes half of it. The corrected value is clamped to the values the first trace interpolated
+ * from, which keeps the scheme from creating new extrema.
+ *
+ * @author Charles Xie
+ *
+ */
+class SemiLagrangianAdvector {
+
+	private final int nx, ny, nx1, ny1;
+	private final float[][] f0, f1, f2;
+
+	SemiLagrangianAdvector(int nx, int ny) {
+		this.nx = nx;
+		this.ny = ny;
+		nx1 = nx - 1;
+		ny1 = ny - 1;
+		f0 = new float[nx][ny];
+		f1 = new float[nx][ny];
+		f2 = new float[nx][ny];
+	}
+
+	/**
+	 * Advect f in place with the velocity (u, v) over the time step. Only the fluid cells in the interior change, the caller applies the boundary conditions. The columns are traced in parallel by the workers of the sweeper.
+	 */
+	void advect(float[][] f, float[][] u, float[][] v, FluidityMask fluidity, float timeStep, float deltaX, float deltaY, boolean corrected, RelaxationSweeper sweeper) {
+		final float tx = timeStep / deltaX;
+		final float ty = timeStep / deltaY;
+		for (int i = 0; i < nx; i++)
+			System.arraycopy(f[i], 0, f0[i], 0, ny);
+		sweeper.forEach(1, nx1, i -> trace(i, f0, f1, u, v, fluidity, tx, ty));
+		if (!corrected) {
+			sweeper.forEach(1, nx1, i -> copyFluidCells(i, f1, f, fluidity));
+			return;
+		}
+		for (int i = 0; i < nx; i++) { // the cells that are not traced keep their values in both directions
+			System.arraycopy(f0[i], 0, f2[i], 0, ny);
+			for (int j = 0; j < ny; j++) {
+				if (i == 0 || i == nx1 || j == 0 || j == ny1 || !fluidity.get(i, j))
+					f1[i][j] = f0[i][j];
+			}
+		}
+		sweeper.forEach(1, nx1, i -> trace(i, f1, f2, u, v, fluidity, -tx, -ty));
+		sweeper.forEach(1, nx1, i -> correct(i, f, u, v, fluidity, tx, ty));
+	}
+
+	private void copyFluidCells(int i, float[][] src, float[][] dst, FluidityMask fluidity) {
+		for (int j = 1; j < ny1; j++) {
+			if (fluidity.get(i, j))
+				dst[i][j] = src[i][j];
+		}
+	}
+
+	// dst = src interpolated at the departure points of the fluid cells in column i
+	private void trace(int i, float[][] src, float[][] dst, float[][] u, float[][] v, FluidityMask fluidity, float tx, float ty) {
+		float x, y, sx, sy;
+		int i0, j0;
+		for (int j = 1; j < ny1; j++) {
+			if (fluidity.get(i, j)) {
+				x = clamp(i - tx * u[i][j], nx1);
+				y = clamp(j - ty * v[i][j], ny1);
+				i0 = Math.min((int) x, nx1 - 1);
+				j0 = Math.min((int) y, ny1 - 1);
+				sx = x - i0;
+				sy = y - j0;
+				dst[i][j] = (1 - sx) * ((1 - sy) * src[i0][j0] + sy * src[i0][j0 + 1]) + sx * ((1 - sy) * src[i0 + 1][j0] + sy * src[i0 + 1][j0 + 1]);
+			}
+		}
+	}
+
+	// f = f1 + (f0 - f2) / 2, limited to the range of the four values of f0 that f1 was interpolated from
+	private void correct(int i, float[][] f, float[][] u, float[][] v, FluidityMask fluidity, float tx, float ty) {
+		float x, y, a, b, c, d, min, max, value;
+		int i0, j0;
+		for (int j = 1; j < ny1; j++) {
+			if (fluidity.get(i, j)) {
+				x = clamp(i - tx * u[i][j], nx1);
+				y = clamp(j - ty * v[i][j], ny1);
+				i0 = Math.min((int) x, nx1 - 1);
+				j0 = Math.min((int) y, ny1 - 1);
+				a = f0[i0][j0];
+				b = f0[i0][j0 + 1];
+				c = f0[i0 + 1][j0];
+				d = f0[i0 + 1][j0 + 1];
+				min = Math.min(Math.min(a, b), Math.min(c, d));
+				max = Math.max(Math.max(a, b), Math.max(c, d));
+				value = f1[i][j] + 0.5f * (f0[i][j] - f2[i][j]);
+				f[i][j] = value < min ? min : (value > max ? max : value);
+			}
+		}
+	}
+
+	private static float clamp(float x, int max) {
+		return x < 0 ? 0 : (x > max ? max : x);
+	}
+
+}
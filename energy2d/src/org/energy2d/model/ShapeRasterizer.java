@@ -0,0 +1,328 @@
+package org.energy2d.model;
+
+import java.awt.Shape;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Converts the shapes of parts and fans into the runs of grid cells whose grid points lie inside them. Instead of testing every cell of the grid against a shape, each row of cells is intersected with the outline once and the cells between the crossings are taken in one go.
+ *
+ * Rectangles and ellipses are intersected analytically. Any other shape (polygons, blobs, annuli) is intersected with its outline, using the same crossing rule as Path2D.contains. The curved outline of an annulus is flattened to a small fraction of a cell first. The cells at the
+ * ends of each run are then checked with the point test, so the runs cover the same cells the point test would, including those that round-off puts on either side of an outline.
+ *
+ * Unless tolerateRoundOffError is true, the runs also take the cells that fall inside when the grid point is nudged by a thousandth of a cell in any of the four directions, the rule the model used to apply cell by cell against round-off errors. The flag keeps the
+ * meaning it has in the point test of the model: true asks for the plain point test without the nudges (which the fluid solver needs), not for more tolerance.
+ *
+ * The runs of a shape are cached and reused as long as the outline, the grid and the tolerance stay the same.
+ *
+ * @author Charles Xie
+ *
+ */
+class ShapeRasterizer {
+
+	private final static float TOLERANCE = 0.001f; // relative to the grid spacing
+	private final static double FLATNESS = 0.0001; // relative to the grid spacing
+
+	// the runs of a shape with and without the nudges are kept apart, as a convective model asks for both in every refresh
+	private static class Entry {
+		long[] signatures = new long[2];
+		CellSpans[] spans = new CellSpans[2];
+	}
+
+	private final Map<Shape, Entry> cache = new IdentityHashMap<>();
+
+	// the flattened outline of the shape being rasterized, reused from one shape to the next
+	private double[] segments = new double[64];
+	private int segmentCount;
+	private int windingRule;
+	private double[] crossings = new double[16];
+	private int[] directions = new int[16];
+	private int[] order = new int[16];
+	private double[] intervals = new double[16];
+	private int intervalCount;
+
+	/**
+	 * @return the cells of an nx x ny grid with the given spacing whose grid points (i * deltaX, j * deltaY) lie in the shape
+	 */
+	synchronized CellSpans rasterize(Shape shape, int nx, int ny, float deltaX, float deltaY, boolean tolerateRoundOffError) {
+		long signature = getSignature(shape, nx, ny, deltaX, deltaY, tolerateRoundOffError);
+		int k = tolerateRoundOffError ? 1 : 0;
+		Entry e = cache.get(shape);
+		if (e != null && e.spans[k] != null && e.signatures[k] == signature)
+			return e.spans[k];
+		if (e == null) {
+			if (cache.size() > 1024) // shapes that have been replaced or deleted are never looked up again
+				cache.clear();
+			e = new Entry();
+			cache.put(shape, e);
+		}
+		e.signatures[k] = signature;
+		e.spans[k] = scan(shape, nx, ny, deltaX, deltaY, tolerateRoundOffError);
+		return e.spans[k];
+	}
+
+	private CellSpans scan(Shape shape, int nx, int ny, float deltaX, float deltaY, boolean tolerateRoundOffError) {
+		Rectangle2D bounds = shape.getBounds2D();
+		if (bounds.isEmpty())
+			return CellSpans.EMPTY;
+		if (!(shape instanceof Rectangle2D) && !(shape instanceof Ellipse2D))
+			flatten(shape, FLATNESS * Math.min(deltaX, deltaY));
+		float dx = tolerateRoundOffError ? 0 : deltaX * TOLERANCE;
+		float dy = tolerateRoundOffError ? 0 : deltaY * TOLERANCE;
+		int jmin = Math.max(0, (int) Math.floor((bounds.getMinY() - 2 * dy) / deltaY));
+		int jmax = Math.min(ny - 1, (int) Math.ceil((bounds.getMaxY() + 2 * dy) / deltaY));
+		CellSpans spans = new CellSpans();
+		float y;
+		int i0, i1;
+		for (int j = jmin; j <= jmax; j++) {
+			y = j * deltaY;
+			intervalCount = 0;
+			addIntervals(shape, y, dx);
+			if (dy > 0) {
+				addIntervals(shape, y - dy, 0);
+				addIntervals(shape, y + dy, 0);
+			}
+			mergeIntervals();
+			for (int k = 0; k < intervalCount; k++) {
+				i0 = firstCellAtOrAfter(intervals[2 * k], nx, deltaX);
+				i1 = firstCellAtOrAfter(intervals[2 * k + 1], nx, deltaX);
+				if (i0 >= i1)
+					continue;
+				// the ends of a run are where round-off can tip the balance, so they are settled by the point test itself
+				while (i0 < i1 && !contains(shape, i0 * deltaX, y, deltaX, deltaY, tolerateRoundOffError))
+					i0++;
+				while (i1 > i0 && !contains(shape, (i1 - 1) * deltaX, y, deltaX, deltaY, tolerateRoundOffError))
+					i1--;
+				if (i0 < i1) {
+					while (i0 > 0 && contains(shape, (i0 - 1) * deltaX, y, deltaX, deltaY, tolerateRoundOffError))
+						i0--;
+					while (i1 < nx && contains(shape, i1 * deltaX, y, deltaX, deltaY, tolerateRoundOffError))
+						i1++;
+				}
+				spans.add(j, i0, i1);
+			}
+		}
+		return spans;
+	}
+
+	/** the point test that the runs reproduce: unless tolerateRoundOffError is true, a point also counts as inside if it is inside after being nudged by a thousandth of a cell in any of the four directions */
+	static boolean contains(Shape shape, float x, float y, float deltaX, float deltaY, boolean tolerateRoundOffError) {
+		if (tolerateRoundOffError)
+			return shape.contains(x, y);
+		return shape.contains(x, y) || shape.contains(x - deltaX * TOLERANCE, y) || shape.contains(x + deltaX * TOLERANCE, y) || shape.contains(x, y - deltaY * TOLERANCE) || shape.contains(x, y + deltaY * TOLERANCE);
+	}
+
+	// the smallest i in [0, nx] whose grid point is at or beyond x
+	private static int firstCellAtOrAfter(double x, int nx, float deltaX) {
+		if (x <= 0)
+			return 0;
+		int i = (int) Math.min(nx, Math.ceil(x / deltaX));
+		while (i > 0 && (i - 1) * deltaX >= x)
+			i--;
+		while (i < nx && i * deltaX < x)
+			i++;
+		return i;
+	}
+
+	// append the half-open intervals [a, b) of x along the line at y that are inside the shape, together with their copies shifted by the margin to either side
+	private void addIntervals(Shape shape, double y, double margin) {
+		if (shape instanceof Rectangle2D) {
+			Rectangle2D r = (Rectangle2D) shape;
+			if (y >= r.getY() && y < r.getY() + r.getHeight())
+				addInterval(r.getX(), r.getX() + r.getWidth(), margin);
+		} else if (shape instanceof Ellipse2D) {
+			Ellipse2D e = (Ellipse2D) shape;
+			double w = e.getWidth();
+			double h = e.getHeight();
+			if (w <= 0 || h <= 0)
+				return;
+			double normy = (y - e.getY()) / h - 0.5;
+			double r = 0.25 - normy * normy;
+			if (r > 0) {
+				r = Math.sqrt(r) * w;
+				addInterval(e.getCenterX() - r, e.getCenterX() + r, margin);
+			}
+		} else {
+			addPathIntervals(y, margin);
+		}
+	}
+
+	private void addInterval(double a, double b, double shift) {
+		addInterval(a, b);
+		if (shift > 0) {
+			addInterval(a - shift, b - shift);
+			addInterval(a + shift, b + shift);
+		}
+	}
+
+	private void addInterval(double a, double b) {
+		if (a >= b)
+			return;
+		if (2 * intervalCount + 2 > intervals.length)
+			intervals = Arrays.copyOf(intervals, intervals.length * 2);
+		intervals[2 * intervalCount] = a;
+		intervals[2 * intervalCount + 1] = b;
+		intervalCount++;
+	}
+
+	// sort the intervals by their starts and join the overlapping ones
+	private void mergeIntervals() {
+		if (intervalCount < 2)
+			return;
+		for (int k = 1; k < intervalCount; k++) { // insertion sort, there are only a few
+			double a = intervals[2 * k], b = intervals[2 * k + 1];
+			int m = k - 1;
+			while (m >= 0 && intervals[2 * m] > a) {
+				intervals[2 * m + 2] = intervals[2 * m];
+				intervals[2 * m + 3] = intervals[2 * m + 1];
+				m--;
+			}
+			intervals[2 * m + 2] = a;
+			intervals[2 * m + 3] = b;
+		}
+		int n = 0;
+		for (int k = 1; k < intervalCount; k++) {
+			if (intervals[2 * k] <= intervals[2 * n + 1]) {
+				if (intervals[2 * k + 1] > intervals[2 * n + 1])
+					intervals[2 * n + 1] = intervals[2 * k + 1];
+			} else {
+				n++;
+				intervals[2 * n] = intervals[2 * k];
+				intervals[2 * n + 1] = intervals[2 * k + 1];
+			}
+		}
+		intervalCount = n + 1;
+	}
+
+	/*
+	 * A point (x, y) is inside if the segments that cross the horizontal line at y to the right of x add up to a nonzero winding number (or an odd one for the even-odd rule). A segment crosses the line if y is in [min(y0, y1), max(y0, y1)), and the crossing is clamped to the x
+	 * range of the segment, which is what Path2D.contains does.
+	 */
+	private void addPathIntervals(double y, double margin) {
+		int n = 0;
+		double x0, y0, x1, y1, x;
+		for (int k = 0; k < segmentCount; k++) {
+			y0 = segments[4 * k + 1];
+			y1 = segments[4 * k + 3];
+			if ((y < y0 && y < y1) || (y >= y0 && y >= y1))
+				continue;
+			x0 = segments[4 * k];
+			x1 = segments[4 * k + 2];
+			x = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+			if (x < Math.min(x0, x1))
+				x = Math.min(x0, x1);
+			else if (x > Math.max(x0, x1))
+				x = Math.max(x0, x1);
+			if (n == crossings.length) {
+				crossings = Arrays.copyOf(crossings, n * 2);
+				directions = Arrays.copyOf(directions, n * 2);
+				order = Arrays.copyOf(order, n * 2);
+			}
+			crossings[n] = x;
+			directions[n] = y0 < y1 ? 1 : -1;
+			order[n] = n;
+			n++;
+		}
+		if (n < 2)
+			return;
+		for (int k = 1; k < n; k++) { // insertion sort of the indices by the crossings
+			int c = order[k];
+			int m = k - 1;
+			while (m >= 0 && crossings[order[m]] > crossings[c]) {
+				order[m + 1] = order[m];
+				m--;
+			}
+			order[m + 1] = c;
+		}
+		// sweeping from the left, the winding number of the points beyond a crossing loses that crossing
+		int winding = 0;
+		for (int k = 0; k < n; k++)
+			winding += directions[k];
+		double start = 0;
+		boolean inside = false, in;
+		for (int k = 0; k < n; k++) {
+			winding -= directions[order[k]];
+			if (k < n - 1 && crossings[order[k + 1]] == crossings[order[k]]) // take the crossings at the same point together
+				continue;
+			in = windingRule == PathIterator.WIND_EVEN_ODD ? (winding & 1) != 0 : winding != 0;
+			if (in && !inside) {
+				start = crossings[order[k]];
+				inside = true;
+			} else if (!in && inside) {
+				addInterval(start, crossings[order[k]], margin);
+				inside = false;
+			}
+		}
+	}
+
+	// store the outline as line segments, closing every subpath
+	private void flatten(Shape shape, double flatness) {
+		segmentCount = 0;
+		PathIterator it = shape.getPathIterator(null, flatness);
+		windingRule = it.getWindingRule();
+		// Area.contains counts crossings with the even-odd rule, whatever its path iterator reports
+		if (shape instanceof Area)
+			windingRule = PathIterator.WIND_EVEN_ODD;
+		double[] c = new double[6];
+		double mx = 0, my = 0, cx = 0, cy = 0;
+		while (!it.isDone()) {
+			switch (it.currentSegment(c)) {
+			case PathIterator.SEG_MOVETO:
+				addSegment(cx, cy, mx, my);
+				mx = cx = c[0];
+				my = cy = c[1];
+				break;
+			case PathIterator.SEG_LINETO:
+				addSegment(cx, cy, c[0], c[1]);
+				cx = c[0];
+				cy = c[1];
+				break;
+			case PathIterator.SEG_CLOSE:
+				addSegment(cx, cy, mx, my);
+				cx = mx;
+				cy = my;
+				break;
+			}
+			it.next();
+		}
+		addSegment(cx, cy, mx, my);
+	}
+
+	private void addSegment(double x0, double y0, double x1, double y1) {
+		if (y0 == y1) // a horizontal segment never crosses a horizontal line
+			return;
+		if (4 * segmentCount + 4 > segments.length)
+			segments = Arrays.copyOf(segments, segments.length * 2);
+		segments[4 * segmentCount] = x0;
+		segments[4 * segmentCount + 1] = y0;
+		segments[4 * segmentCount + 2] = x1;
+		segments[4 * segmentCount + 3] = y1;
+		segmentCount++;
+	}
+
+	// a hash of everything the runs depend on: the outline, the grid and the tolerance
+	static long getSignature(Shape shape, int nx, int ny, float deltaX, float deltaY, boolean tolerateRoundOffError) {
+		long h = shape.getClass().hashCode();
+		h = h * 31 + nx;
+		h = h * 31 + ny;
+		h = h * 31 + Float.floatToIntBits(deltaX);
+		h = h * 31 + Float.floatToIntBits(deltaY);
+		h = h * 31 + (tolerateRoundOffError ? 1 : 0);
+		double[] c = new double[6];
+		int type, n;
+		for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+			type = it.currentSegment(c);
+			h = h * 31 + type;
+			n = type == PathIterator.SEG_QUADTO ? 4 : (type == PathIterator.SEG_CUBICTO ? 6 : (type == PathIterator.SEG_CLOSE ? 0 : 2));
+			for (int k = 0; k < n; k++)
+				h = h * 1000003 + Double.doubleToLongBits(c[k]);
+		}
+		return h;
+	}
+
+}
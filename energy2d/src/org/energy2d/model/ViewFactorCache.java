@@ -0,0 +1,208 @@
+package org.energy2d.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the radiosity matrices of the meshes generated recently, so that a model that goes back to a geometry it had (when it is reloaded, reset or a change is undone) does not have to compute the visibility and view factors again.
+ *
+ * The matrices are looked up by a key that the radiosity solver computes from everything they depend on. They are kept in memory for the last few keys. If a directory is set, the matrices of a model can also be saved in a file per key, which is mapped into
+ * memory to read it back. Only the meshes of the models that are loaded or saved go to the disk, not those of every edit, and the least recently used files are deleted when the directory grows beyond MAXIMUM_DISK_SIZE. The files are written under a temporary
+ * name and then renamed, so that another instance of the application never reads a file that is only half written, and a file that cannot be read is simply computed again.
+ *
+ * @author Charles Xie
+ *
+ */
+class ViewFactorCache {
+
+	private final static int MAGIC = 0x45325646; // "E2VF"
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 16;
+	private final static long MAXIMUM_DISK_SIZE = 100L << 20; // bytes
+
+	private final int capacity;
+	private final Map<String, RadiosityMatrix> memory;
+	private volatile File directory;
+
+	ViewFactorCache(int capacity) {
+		this.capacity = capacity;
+		memory = new LinkedHashMap<String, RadiosityMatrix>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, RadiosityMatrix> eldest) {
+				return size() > ViewFactorCache.this.capacity;
+			}
+		};
+	}
+
+	/** set the directory of the cache files, or null to keep the matrices only in memory */
+	void setDirectory(File directory) {
+		this.directory = directory;
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	/** @return the matrices of a mesh of the given size stored for the key, or null if there are none */
+	RadiosityMatrix get(String key, int size) {
+		RadiosityMatrix m;
+		synchronized (memory) {
+			m = memory.get(key);
+		}
+		if (m != null)
+			return m.size == size ? m : null;
+		File dir = directory;
+		if (dir == null)
+			return null;
+		File file = new File(dir, key + ".vf");
+		if (!file.isFile())
+			return null;
+		m = read(file, size);
+		if (m != null) {
+			file.setLastModified(System.currentTimeMillis()); // the last use decides which files are pruned first
+			synchronized (memory) {
+				memory.put(key, m);
+			}
+		}
+		return m;
+	}
+
+	/** keep the matrices in memory */
+	void put(String key, RadiosityMatrix m) {
+		synchronized (memory) {
+			memory.put(key, m);
+		}
+	}
+
+	/** also keep the matrices in a file, if a directory is set, and prune the directory */
+	void save(String key, RadiosityMatrix m) {
+		File dir = directory;
+		if (dir == null)
+			return;
+		File file = new File(dir, key + ".vf");
+		if (file.isFile()) {
+			file.setLastModified(System.currentTimeMillis());
+			return;
+		}
+		if (write(file, m))
+			prune(dir, file);
+	}
+
+	// delete the least recently used files until the directory is within its size (never the file just written)
+	private static void prune(File dir, File keep) {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".vf"));
+		if (files == null)
+			return;
+		long total = 0;
+		for (File f : files)
+			total += f.length();
+		if (total <= MAXIMUM_DISK_SIZE)
+			return;
+		long[] lastModified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			lastModified[i] = files[i].lastModified(); // read once, as another instance may touch the files while we sort
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(lastModified[a], lastModified[b]));
+		for (int i = 0; i < order.length && total > MAXIMUM_DISK_SIZE; i++) {
+			File f = files[order[i]];
+			if (f.equals(keep))
+				continue;
+			long length = f.length();
+			if (f.delete())
+				total -= length;
+		}
+	}
+
+	// the layout: magic, version, size and element count, followed by the row starts, the columns, the reflection and the absorption elements
+	private static RadiosityMatrix read(File file, int size) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if (length < HEADER_SIZE)
+				return null;
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != size)
+				return null;
+			int count = buffer.getInt();
+			if (count < 0 || length != HEADER_SIZE + 4L * (size + 1) + 12L * count)
+				return null;
+			int[] rowStart = new int[size + 1];
+			int[] columns = new int[count];
+			float[] reflection = new float[count];
+			float[] absorption = new float[count];
+			buffer.asIntBuffer().get(rowStart);
+			buffer.position(buffer.position() + 4 * rowStart.length);
+			buffer.asIntBuffer().get(columns);
+			buffer.position(buffer.position() + 4 * count);
+			buffer.asFloatBuffer().get(reflection);
+			buffer.position(buffer.position() + 4 * count);
+			buffer.asFloatBuffer().get(absorption);
+			if (rowStart[0] != 0 || rowStart[size] != count)
+				return null;
+			for (int i = 0; i < size; i++) {
+				if (rowStart[i] > rowStart[i + 1])
+					return null;
+			}
+			for (int c : columns) {
+				if (c < 0 || c >= size)
+					return null;
+			}
+			return new RadiosityMatrix(rowStart, columns, reflection, absorption);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private static boolean write(File file, RadiosityMatrix m) {
+		File dir = file.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			return false;
+		int count = m.getElementCount();
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (m.size + 1) + 12 * count);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(m.size).putInt(count);
+		buffer.asIntBuffer().put(m.rowStart);
+		buffer.position(buffer.position() + 4 * m.rowStart.length);
+		buffer.asIntBuffer().put(m.columns);
+		buffer.position(buffer.position() + 4 * count);
+		buffer.asFloatBuffer().put(m.reflection);
+		buffer.position(buffer.position() + 4 * count);
+		buffer.asFloatBuffer().put(m.absorption);
+		buffer.rewind();
+		File temp = null;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp", dir);
+			try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			temp = null;
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (temp != null)
+				temp.delete();
+		}
+	}
+
+}
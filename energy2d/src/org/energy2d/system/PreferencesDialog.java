@@ -21,6 +21,7 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 
 import org.energy2d.event.ManipulationEvent;
+import org.energy2d.model.Model2D;
 import org.energy2d.model.Sensor;
 import org.energy2d.util.MiscUtil;
 
@@ -33,6 +34,7 @@ class PreferencesDialog extends JDialog {
 	private Window owner;
 	private JCheckBox snapToGridCheckBox;
 	private JTextField perimeterStepField;
+	private JCheckBox viewFactorCacheCheckBox;
 	private JTextField maximumDataPointsField;
 	private JComboBox<String> timeUnitComboBox;
 	private JComboBox<String> controlPanelPositionComboBox;
@@ -65,6 +67,7 @@ class PreferencesDialog extends JDialog {
 				s2d.model.setPerimeterStepSize(0.01f * x);
 				if (s2d.view.isViewFactorLinesOn())
 					s2d.model.generateViewFactorMesh();
+				Model2D.setViewFactorCacheDirectory(viewFactorCacheCheckBox.isSelected() ? System2D.VIEW_FACTOR_CACHE_DIRECTORY : null);
 
 				x = parse(maximumDataPointsField.getText());
 				if (Float.isNaN(x))
@@ -155,6 +158,10 @@ class PreferencesDialog extends JDialog {
 		perimeterStepField.addActionListener(okListener);
 		p.add(perimeterStepField);
 
+		viewFactorCacheCheckBox = new JCheckBox("Keep view factors on disk", Model2D.getViewFactorCacheDirectory() != null);
+		viewFactorCacheCheckBox.setToolTipText("<html>Should the view factors of the models opened or saved be kept in " + System2D.VIEW_FACTOR_CACHE_DIRECTORY + "<br>so that reopening them does not compute the view factors again?</html>");
+		p.add(viewFactorCacheCheckBox);
+
 		pack();
 		setLocationRelativeTo(s2d.view);
 
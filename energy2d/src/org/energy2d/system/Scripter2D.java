@@ -696,6 +696,147 @@ class Scripter2D extends Scripter {
 						return;
 					}
 					s2d.model.setBuoyancyApproximation((byte) buoyancyApproximation);
+				} else if (t[0].equalsIgnoreCase("heat_solver")) {
+					int heatSolverType = 0;
+					try {
+						heatSolverType = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setHeatSolverType((byte) heatSolverType);
+				} else if (t[0].equalsIgnoreCase("heat_multigrid_tolerance")) {
+					float tolerance = 0;
+					try {
+						tolerance = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setHeatMultigridTolerance(tolerance);
+				} else if (t[0].equalsIgnoreCase("maximum_heat_multigrid_cycles")) {
+					int maximumCycles = 0;
+					try {
+						maximumCycles = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMaximumHeatMultigridCycles(maximumCycles);
+				} else if (t[0].equalsIgnoreCase("advection_scheme")) {
+					int advectionScheme = 0;
+					try {
+						advectionScheme = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setAdvectionScheme((byte) advectionScheme);
+				} else if (t[0].equalsIgnoreCase("pressure_solver")) {
+					int pressureSolverType = 0;
+					try {
+						pressureSolverType = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setPressureSolverType((byte) pressureSolverType);
+				} else if (t[0].equalsIgnoreCase("stream_function_solver")) {
+					int streamFunctionSolverType = 0;
+					try {
+						streamFunctionSolverType = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setStreamFunctionSolverType((byte) streamFunctionSolverType);
+				} else if (t[0].equalsIgnoreCase("preconditioner")) {
+					int preconditioner = 0;
+					try {
+						preconditioner = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setPreconditioner((byte) preconditioner);
+				} else if (t[0].equalsIgnoreCase("conjugate_gradient_tolerance")) {
+					float tolerance = 0;
+					try {
+						tolerance = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setConjugateGradientTolerance(tolerance);
+				} else if (t[0].equalsIgnoreCase("maximum_conjugate_gradient_iterations")) {
+					int maximumIterations = 0;
+					try {
+						maximumIterations = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMaximumConjugateGradientIterations(maximumIterations);
+				} else if (t[0].equalsIgnoreCase("multigrid_tolerance")) {
+					float tolerance = 0;
+					try {
+						tolerance = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMultigridTolerance(tolerance);
+				} else if (t[0].equalsIgnoreCase("maximum_multigrid_cycles")) {
+					int maximumCycles = 0;
+					try {
+						maximumCycles = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMaximumMultigridCycles(maximumCycles);
+				} else if (t[0].equalsIgnoreCase("relaxation_tolerance")) {
+					float relaxationTolerance = 0;
+					try {
+						relaxationTolerance = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setRelaxationTolerance(relaxationTolerance);
+				} else if (t[0].equalsIgnoreCase("grid_resolution")) {
+					int gridNx = 0, gridNy = 0;
+					try {
+						gridNx = Integer.parseInt(t[1]);
+						gridNy = t.length > 2 ? Integer.parseInt(t[2]) : gridNx;
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					try {
+						s2d.model.setGridResolution(gridNx, gridNy);
+					} catch (IllegalArgumentException | IllegalStateException e) {
+						showException(ci, e);
+						return;
+					}
+				} else if (t[0].equalsIgnoreCase("workers")) {
+					int workers = 0;
+					try {
+						workers = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setWorkerCount(workers);
+				} else if (t[0].equalsIgnoreCase("maximum_relaxation_sweeps")) {
+					int maximumRelaxationSweeps = 0;
+					try {
+						maximumRelaxationSweeps = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMaximumRelaxationSweeps(maximumRelaxationSweeps);
 				} else if (t[0].equalsIgnoreCase("velocity")) {
 					s2d.view.setVelocityOn("true".equalsIgnoreCase(t[1]));
 					s2d.view.repaint();
@@ -858,6 +999,44 @@ class Scripter2D extends Scripter {
 						return;
 					}
 					s2d.model.setTimeStep(timestep);
+				} else if (t[0].equalsIgnoreCase("adaptive_time_step")) {
+					s2d.model.setAdaptiveTimeStep(Boolean.parseBoolean(t[1]));
+				} else if (t[0].equalsIgnoreCase("minimum_time_step")) {
+					float x = 0;
+					try {
+						x = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMinimumTimeStep(x);
+				} else if (t[0].equalsIgnoreCase("maximum_time_step")) {
+					float x = 0;
+					try {
+						x = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setMaximumTimeStep(x);
+				} else if (t[0].equalsIgnoreCase("courant_number")) {
+					float x = 0;
+					try {
+						x = Float.parseFloat(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setCourantNumber(x);
+				} else if (t[0].equalsIgnoreCase("time_step_adaptation_interval")) {
+					int x = 0;
+					try {
+						x = Integer.parseInt(t[1]);
+					} catch (NumberFormatException e) {
+						showException(ci, e);
+						return;
+					}
+					s2d.model.setTimeStepAdaptationInterval(x);
 				} else if (t[0].equalsIgnoreCase("viewupdate")) {
 					int viewUpdateInterval = 0;
 					try {
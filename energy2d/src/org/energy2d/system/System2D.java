@@ -111,6 +111,7 @@ public class System2D extends JApplet implements ManipulationListener {
     JFrame owner;
     private static Preferences preferences;
     static boolean launchedByJWS;
+    final static File VIEW_FACTOR_CACHE_DIRECTORY = new File(System.getProperty("user.home"), ".energy2d" + File.separator + "viewfactors");
     private static boolean appDirectoryWritable = true;
     private static System2D box;
 
@@ -442,6 +443,8 @@ public class System2D extends JApplet implements ManipulationListener {
         } finally {
             writer.close();
         }
+        if (model.isRadiative())
+            model.saveViewFactorMesh();
         setSaved(true);
     }
 
@@ -459,6 +462,8 @@ public class System2D extends JApplet implements ManipulationListener {
         } finally {
             os.close();
         }
+        if (model.isRadiative())
+            model.saveViewFactorMesh();
         setSaved(true);
     }
 
@@ -773,16 +778,14 @@ public class System2D extends JApplet implements ManipulationListener {
         }
         if (target instanceof Part) {
             Part p = (Part) target;
-            model.refreshMaterialPropertyArrays();
-            model.refreshPowerArray();
-            model.refreshTemperatureBoundaryArray();
+            model.refreshArraysAround(p); // only the cells around the part need an update
             if (p.getEmissivity() > 0)
                 model.getPhotons().clear();
             if (model.isRadiative())
                 model.generateViewFactorMesh();
             setSaved(false);
         } else if (target instanceof Fan) {
-            model.refreshMaterialPropertyArrays();
+            model.refreshArraysAround((Fan) target);
         }
         view.repaint();
     }
@@ -914,6 +917,7 @@ public class System2D extends JApplet implements ManipulationListener {
                         preferences.put("Recent File " + i, recentFiles[n - i - 1]);
             }
             preferences.putInt("Sensor Maximum Data Points", Sensor.getMaximumDataPoints());
+            preferences.putBoolean("View Factor Disk Cache", Model2D.getViewFactorCacheDirectory() != null);
         }
         MiscUtil.shutdown();
         if (launchedByJWS || "true".equalsIgnoreCase(System.getProperty("NoUpdate"))) {
@@ -1012,6 +1016,8 @@ public class System2D extends JApplet implements ManipulationListener {
         if (preferences == null)
             preferences = Preferences.userNodeForPackage(System2D.class);
         Sensor.setMaximumDataPoints(preferences.getInt("Sensor Maximum Data Points", 1000));
+        if (preferences.getBoolean("View Factor Disk Cache", false))
+            Model2D.setViewFactorCacheDirectory(VIEW_FACTOR_CACHE_DIRECTORY);
 
         Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
         int w = (int) (screen.height * 0.7);
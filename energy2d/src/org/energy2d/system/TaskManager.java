@@ -16,6 +16,7 @@ public abstract class TaskManager {
 	List<Task> taskPool;
 	private List<Task> tasksToRemove, tasksToAdd;
 	private TaskManagerView view;
+	private int lastIndexOfStep = -1;
 
 	public TaskManager() {
 		taskPool = Collections.synchronizedList(new ArrayList<Task>());
@@ -114,15 +115,16 @@ public abstract class TaskManager {
 	/** execute the tasks in the pool (the order has been sorted according to the priorities). */
 	public void execute() {
 		processPendingRequests();
+		int indexOfStep = getIndexOfStep();
 		try { // it probably won't hurt much not to synchronize this iterator
 			for (Task task : taskPool) {
 				if (task.isEnabled() && task.getInterval() > 0) {
-					if (getIndexOfStep() > task.getLifetime())
+					if (indexOfStep > task.getLifetime())
 						task.setCompleted(true);
 					if (task.isCompleted()) {
 						remove(task);
 					}
-					if (getIndexOfStep() % task.getInterval() == 0) {
+					if (isDue(task.getInterval(), indexOfStep)) {
 						task.execute();
 					}
 				}
@@ -130,6 +132,14 @@ public abstract class TaskManager {
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
+		lastIndexOfStep = indexOfStep;
+	}
+
+	// With the adaptive time step, the index of step may advance by more than one or not at all between two calls, so a task is due when the index has passed a multiple of its interval since the last call.
+	private boolean isDue(int interval, int indexOfStep) {
+		if (lastIndexOfStep < 0 || indexOfStep < lastIndexOfStep) // the first call or after a reset
+			return indexOfStep % interval == 0;
+		return indexOfStep / interval != lastIndexOfStep / interval;
 	}
 
 	public void processPendingRequests() {
@@ -54,6 +54,11 @@ class XmlDecoder extends DefaultHandler {
 	private float modelWidth = 10;
 	private float modelHeight = 10;
 	private float timeStep = 0.1f;
+	private boolean adaptiveTimeStep;
+	private float minimumTimeStep = Model2D.DEFAULT_MINIMUM_TIME_STEP;
+	private float maximumTimeStep = Model2D.DEFAULT_MAXIMUM_TIME_STEP;
+	private float courantNumber = Model2D.DEFAULT_COURANT_NUMBER;
+	private int timeStepAdaptationInterval = Model2D.DEFAULT_TIME_STEP_ADAPTATION_INTERVAL;
 	private int measurementInterval = 100;
 	private int controlInterval = 100;
 	private int viewUpdateInterval = 20;
@@ -79,6 +84,22 @@ class XmlDecoder extends DefaultHandler {
 	private float thermalExpansionCoefficient = 0.00025f;
 	private byte buoyancyApproximation = Model2D.BUOYANCY_AVERAGE_COLUMN;
 	private byte gravityType = Model2D.GRAVITY_UNIFORM;
+	private byte heatSolverType = Model2D.HEAT_SOLVER_RELAXATION;
+	private byte advectionScheme = Model2D.ADVECTION_MACCORMACK;
+	private byte pressureSolverType = Model2D.PRESSURE_SOLVER_RELAXATION;
+	private byte streamFunctionSolverType = Model2D.STREAM_FUNCTION_SOLVER_RELAXATION;
+	private byte preconditioner = Model2D.PRECONDITIONER_JACOBI;
+	private float conjugateGradientTolerance = Model2D.DEFAULT_CONJUGATE_GRADIENT_TOLERANCE;
+	private int maximumConjugateGradientIterations = Model2D.DEFAULT_CONJUGATE_GRADIENT_ITERATIONS;
+	private float multigridTolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE;
+	private int maximumMultigridCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+	private float heatMultigridTolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE;
+	private int maximumHeatMultigridCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+	private int gridNx = Model2D.DEFAULT_GRID_SIZE;
+	private int gridNy = Model2D.DEFAULT_GRID_SIZE;
+	private float relaxationTolerance = Model2D.DEFAULT_RELAXATION_TOLERANCE;
+	private int maximumRelaxationSweeps = Model2D.DEFAULT_RELAXATION_SWEEPS;
+	private int maximumRadiositySweeps = Model2D.DEFAULT_RADIOSITY_SWEEPS;
 	private String nextSim, prevSim;
 
 	// view properties
@@ -179,10 +200,16 @@ class XmlDecoder extends DefaultHandler {
 		box.view.setControlPanelPosition(controlPanelPosition);
 		box.setPreviousSimulation(prevSim);
 		box.setNextSimulation(nextSim);
+		box.model.setGridResolution(gridNx, gridNy);
 		box.model.setLx(modelWidth);
 		box.model.setLy(modelHeight);
 		box.view.setArea(0, modelWidth, 0, modelHeight);
 		box.model.setTimeStep(timeStep);
+		box.model.setMinimumTimeStep(minimumTimeStep);
+		box.model.setMaximumTimeStep(maximumTimeStep);
+		box.model.setCourantNumber(courantNumber);
+		box.model.setTimeStepAdaptationInterval(timeStepAdaptationInterval);
+		box.model.setAdaptiveTimeStep(adaptiveTimeStep);
 		box.measure.setInterval(measurementInterval);
 		box.control.setInterval(controlInterval);
 		box.repaint.setInterval(viewUpdateInterval);
@@ -211,6 +238,20 @@ class XmlDecoder extends DefaultHandler {
 		box.model.setThermalExpansionCoefficient(thermalExpansionCoefficient);
 		box.model.setBuoyancyApproximation(buoyancyApproximation);
 		box.model.setGravityType(gravityType);
+		box.model.setHeatSolverType(heatSolverType);
+		box.model.setAdvectionScheme(advectionScheme);
+		box.model.setPressureSolverType(pressureSolverType);
+		box.model.setStreamFunctionSolverType(streamFunctionSolverType);
+		box.model.setPreconditioner(preconditioner);
+		box.model.setConjugateGradientTolerance(conjugateGradientTolerance);
+		box.model.setMaximumConjugateGradientIterations(maximumConjugateGradientIterations);
+		box.model.setMultigridTolerance(multigridTolerance);
+		box.model.setMaximumMultigridCycles(maximumMultigridCycles);
+		box.model.setHeatMultigridTolerance(heatMultigridTolerance);
+		box.model.setMaximumHeatMultigridCycles(maximumHeatMultigridCycles);
+		box.model.setRelaxationTolerance(relaxationTolerance);
+		box.model.setMaximumRelaxationSweeps(maximumRelaxationSweeps);
+		box.model.setMaximumRadiositySweeps(maximumRadiositySweeps);
 
 		box.view.setGraphDataType(graphDataType);
 		box.view.setGraphTimeUnit(graphTimeUnit);
@@ -253,8 +294,10 @@ class XmlDecoder extends DefaultHandler {
 		box.model.refreshTemperatureBoundaryArray();
 		box.model.refreshMaterialPropertyArrays();
 		box.model.setInitialTemperature();
-		if (box.model.isRadiative())
+		if (box.model.isRadiative()) {
 			box.model.generateViewFactorMesh();
+			box.model.saveViewFactorMesh();
+		}
 
 		// since we don't know the width and height of the model until now, we have to fix the locations and the sizes of
 		// the sensors, since they are relative to the size of the model.
@@ -986,12 +1029,26 @@ class XmlDecoder extends DefaultHandler {
 			nextSim = str;
 		} else if (qName == "prev_sim") {
 			prevSim = str;
+		} else if (qName == "grid_nx") {
+			gridNx = Integer.parseInt(str);
+		} else if (qName == "grid_ny") {
+			gridNy = Integer.parseInt(str);
 		} else if (qName == "model_width") {
 			modelWidth = Float.parseFloat(str);
 		} else if (qName == "model_height") {
 			modelHeight = Float.parseFloat(str);
 		} else if (qName == "timestep") {
 			timeStep = Float.parseFloat(str);
+		} else if (qName == "adaptive_time_step") {
+			adaptiveTimeStep = Boolean.parseBoolean(str);
+		} else if (qName == "minimum_time_step") {
+			minimumTimeStep = Float.parseFloat(str);
+		} else if (qName == "maximum_time_step") {
+			maximumTimeStep = Float.parseFloat(str);
+		} else if (qName == "courant_number") {
+			courantNumber = Float.parseFloat(str);
+		} else if (qName == "time_step_adaptation_interval") {
+			timeStepAdaptationInterval = Integer.parseInt(str);
 		} else if (qName == "measurement_interval") {
 			measurementInterval = Integer.parseInt(str);
 		} else if (qName == "control_interval") {
@@ -1042,6 +1099,34 @@ class XmlDecoder extends DefaultHandler {
 			buoyancyApproximation = Byte.parseByte(str);
 		} else if (qName == "gravity_type") {
 			gravityType = Byte.parseByte(str);
+		} else if (qName == "heat_solver") {
+			heatSolverType = Byte.parseByte(str);
+		} else if (qName == "advection_scheme") {
+			advectionScheme = Byte.parseByte(str);
+		} else if (qName == "pressure_solver") {
+			pressureSolverType = Byte.parseByte(str);
+		} else if (qName == "stream_function_solver") {
+			streamFunctionSolverType = Byte.parseByte(str);
+		} else if (qName == "preconditioner") {
+			preconditioner = Byte.parseByte(str);
+		} else if (qName == "conjugate_gradient_tolerance") {
+			conjugateGradientTolerance = Float.parseFloat(str);
+		} else if (qName == "maximum_conjugate_gradient_iterations") {
+			maximumConjugateGradientIterations = Integer.parseInt(str);
+		} else if (qName == "multigrid_tolerance") {
+			multigridTolerance = Float.parseFloat(str);
+		} else if (qName == "maximum_multigrid_cycles") {
+			maximumMultigridCycles = Integer.parseInt(str);
+		} else if (qName == "heat_multigrid_tolerance") {
+			heatMultigridTolerance = Float.parseFloat(str);
+		} else if (qName == "maximum_heat_multigrid_cycles") {
+			maximumHeatMultigridCycles = Integer.parseInt(str);
+		} else if (qName == "relaxation_tolerance") {
+			relaxationTolerance = Float.parseFloat(str);
+		} else if (qName == "maximum_relaxation_sweeps") {
+			maximumRelaxationSweeps = Integer.parseInt(str);
+		} else if (qName == "maximum_radiosity_sweeps") {
+			maximumRadiositySweeps = Integer.parseInt(str);
 		} else if (qName == "minimum_temperature") {
 			minimumTemperature = Float.parseFloat(str);
 		} else if (qName == "maximum_temperature") {
@@ -1324,6 +1409,11 @@ class XmlDecoder extends DefaultHandler {
 		modelWidth = 10;
 		modelHeight = 10;
 		timeStep = 1;
+		adaptiveTimeStep = false;
+		minimumTimeStep = Model2D.DEFAULT_MINIMUM_TIME_STEP;
+		maximumTimeStep = Model2D.DEFAULT_MAXIMUM_TIME_STEP;
+		courantNumber = Model2D.DEFAULT_COURANT_NUMBER;
+		timeStepAdaptationInterval = Model2D.DEFAULT_TIME_STEP_ADAPTATION_INTERVAL;
 		measurementInterval = 100;
 		controlInterval = 100;
 		viewUpdateInterval = 20;
@@ -1349,6 +1439,22 @@ class XmlDecoder extends DefaultHandler {
 		thermalExpansionCoefficient = 0;
 		buoyancyApproximation = Model2D.BUOYANCY_AVERAGE_COLUMN;
 		gravityType = Model2D.GRAVITY_UNIFORM;
+		heatSolverType = Model2D.HEAT_SOLVER_RELAXATION;
+		advectionScheme = Model2D.ADVECTION_MACCORMACK;
+		pressureSolverType = Model2D.PRESSURE_SOLVER_RELAXATION;
+		streamFunctionSolverType = Model2D.STREAM_FUNCTION_SOLVER_RELAXATION;
+		preconditioner = Model2D.PRECONDITIONER_JACOBI;
+		conjugateGradientTolerance = Model2D.DEFAULT_CONJUGATE_GRADIENT_TOLERANCE;
+		maximumConjugateGradientIterations = Model2D.DEFAULT_CONJUGATE_GRADIENT_ITERATIONS;
+		multigridTolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE;
+		maximumMultigridCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+		heatMultigridTolerance = Model2D.DEFAULT_MULTIGRID_TOLERANCE;
+		maximumHeatMultigridCycles = Model2D.DEFAULT_MULTIGRID_CYCLES;
+		gridNx = Model2D.DEFAULT_GRID_SIZE;
+		gridNy = Model2D.DEFAULT_GRID_SIZE;
+		relaxationTolerance = Model2D.DEFAULT_RELAXATION_TOLERANCE;
+		maximumRelaxationSweeps = Model2D.DEFAULT_RELAXATION_SWEEPS;
+		maximumRadiositySweeps = Model2D.DEFAULT_RADIOSITY_SWEEPS;
 
 		// view properties
 		graphDataType = 0;
@@ -51,6 +51,10 @@ class XmlEncoder {
 
 		sb.append("<model>\n");
 
+		if (box.model.getNx() != Model2D.DEFAULT_GRID_SIZE || box.model.getNy() != Model2D.DEFAULT_GRID_SIZE) {
+			sb.append("<grid_nx>" + box.model.getNx() + "</grid_nx>\n");
+			sb.append("<grid_ny>" + box.model.getNy() + "</grid_ny>\n");
+		}
 		if (box.model.getLx() != 10) {
 			sb.append("<model_width>" + box.model.getLx() + "</model_width>\n");
 		}
@@ -58,6 +62,21 @@ class XmlEncoder {
 			sb.append("<model_height>" + box.model.getLy() + "</model_height>\n");
 		}
 		sb.append("<timestep>" + box.model.getTimeStep() + "</timestep>\n");
+		if (box.model.isAdaptiveTimeStep()) {
+			sb.append("<adaptive_time_step>true</adaptive_time_step>\n");
+		}
+		if (box.model.getMinimumTimeStep() != Model2D.DEFAULT_MINIMUM_TIME_STEP) {
+			sb.append("<minimum_time_step>" + box.model.getMinimumTimeStep() + "</minimum_time_step>\n");
+		}
+		if (box.model.getMaximumTimeStep() != Model2D.DEFAULT_MAXIMUM_TIME_STEP) {
+			sb.append("<maximum_time_step>" + box.model.getMaximumTimeStep() + "</maximum_time_step>\n");
+		}
+		if (box.model.getCourantNumber() != Model2D.DEFAULT_COURANT_NUMBER) {
+			sb.append("<courant_number>" + box.model.getCourantNumber() + "</courant_number>\n");
+		}
+		if (box.model.getTimeStepAdaptationInterval() != Model2D.DEFAULT_TIME_STEP_ADAPTATION_INTERVAL) {
+			sb.append("<time_step_adaptation_interval>" + box.model.getTimeStepAdaptationInterval() + "</time_step_adaptation_interval>\n");
+		}
 		if (box.measure.getInterval() != 100) {
 			sb.append("<measurement_interval>" + box.measure.getInterval() + "</measurement_interval>\n");
 		}
@@ -116,6 +135,48 @@ class XmlEncoder {
 		}
 		sb.append("<thermal_expansion_coefficient>" + box.model.getThermalExpansionCoefficient() + "</thermal_expansion_coefficient>\n");
 		sb.append("<buoyancy_approximation>" + box.model.getBuoyancyApproximation() + "</buoyancy_approximation>\n");
+		if (box.model.getHeatSolverType() != Model2D.HEAT_SOLVER_RELAXATION) {
+			sb.append("<heat_solver>" + box.model.getHeatSolverType() + "</heat_solver>\n");
+		}
+		if (box.model.getAdvectionScheme() != Model2D.ADVECTION_MACCORMACK) {
+			sb.append("<advection_scheme>" + box.model.getAdvectionScheme() + "</advection_scheme>\n");
+		}
+		if (box.model.getPressureSolverType() != Model2D.PRESSURE_SOLVER_RELAXATION) {
+			sb.append("<pressure_solver>" + box.model.getPressureSolverType() + "</pressure_solver>\n");
+		}
+		if (box.model.getStreamFunctionSolverType() != Model2D.STREAM_FUNCTION_SOLVER_RELAXATION) {
+			sb.append("<stream_function_solver>" + box.model.getStreamFunctionSolverType() + "</stream_function_solver>\n");
+		}
+		if (box.model.getPreconditioner() != Model2D.PRECONDITIONER_JACOBI) {
+			sb.append("<preconditioner>" + box.model.getPreconditioner() + "</preconditioner>\n");
+		}
+		if (box.model.getConjugateGradientTolerance() != Model2D.DEFAULT_CONJUGATE_GRADIENT_TOLERANCE) {
+			sb.append("<conjugate_gradient_tolerance>" + box.model.getConjugateGradientTolerance() + "</conjugate_gradient_tolerance>\n");
+		}
+		if (box.model.getMaximumConjugateGradientIterations() != Model2D.DEFAULT_CONJUGATE_GRADIENT_ITERATIONS) {
+			sb.append("<maximum_conjugate_gradient_iterations>" + box.model.getMaximumConjugateGradientIterations() + "</maximum_conjugate_gradient_iterations>\n");
+		}
+		if (box.model.getMultigridTolerance() != Model2D.DEFAULT_MULTIGRID_TOLERANCE) {
+			sb.append("<multigrid_tolerance>" + box.model.getMultigridTolerance() + "</multigrid_tolerance>\n");
+		}
+		if (box.model.getMaximumMultigridCycles() != Model2D.DEFAULT_MULTIGRID_CYCLES) {
+			sb.append("<maximum_multigrid_cycles>" + box.model.getMaximumMultigridCycles() + "</maximum_multigrid_cycles>\n");
+		}
+		if (box.model.getHeatMultigridTolerance() != Model2D.DEFAULT_MULTIGRID_TOLERANCE) {
+			sb.append("<heat_multigrid_tolerance>" + box.model.getHeatMultigridTolerance() + "</heat_multigrid_tolerance>\n");
+		}
+		if (box.model.getMaximumHeatMultigridCycles() != Model2D.DEFAULT_MULTIGRID_CYCLES) {
+			sb.append("<maximum_heat_multigrid_cycles>" + box.model.getMaximumHeatMultigridCycles() + "</maximum_heat_multigrid_cycles>\n");
+		}
+		if (box.model.getRelaxationTolerance() != Model2D.DEFAULT_RELAXATION_TOLERANCE) {
+			sb.append("<relaxation_tolerance>" + box.model.getRelaxationTolerance() + "</relaxation_tolerance>\n");
+		}
+		if (box.model.getMaximumRelaxationSweeps() != Model2D.DEFAULT_RELAXATION_SWEEPS) {
+			sb.append("<maximum_relaxation_sweeps>" + box.model.getMaximumRelaxationSweeps() + "</maximum_relaxation_sweeps>\n");
+		}
+		if (box.model.getMaximumRadiositySweeps() != Model2D.DEFAULT_RADIOSITY_SWEEPS) {
+			sb.append("<maximum_radiosity_sweeps>" + box.model.getMaximumRadiositySweeps() + "</maximum_radiosity_sweeps>\n");
+		}
 
 		sb.append("<boundary>\n");
 		sb.append(box.model.getThermalBoundary().toXml());
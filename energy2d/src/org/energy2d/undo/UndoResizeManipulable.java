@@ -154,9 +154,7 @@ public class UndoResizeManipulable extends AbstractUndoableEdit {
 				e.setOuterB(oldOuterB);
 				e.setShape();
 			}
-			model.refreshPowerArray();
-			model.refreshTemperatureBoundaryArray();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 			model.refreshHeliostatsAimedAt((Part) selectedManipulable);
 			if (view.isViewFactorLinesOn())
 				model.generateViewFactorMesh();
@@ -171,7 +169,7 @@ public class UndoResizeManipulable extends AbstractUndoableEdit {
 			rect.y = oldY;
 			rect.width = oldW;
 			rect.height = oldH;
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 		} else if (selectedManipulable instanceof Heliostat) {
 			Shape shape = selectedManipulable.getShape();
 			Rectangle2D.Float rect = (Rectangle2D.Float) shape;
@@ -251,9 +249,7 @@ public class UndoResizeManipulable extends AbstractUndoableEdit {
 				e.setOuterB(newOuterB);
 				e.setShape();
 			}
-			model.refreshPowerArray();
-			model.refreshTemperatureBoundaryArray();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 			model.refreshHeliostatsAimedAt((Part) selectedManipulable);
 			if (view.isViewFactorLinesOn())
 				model.generateViewFactorMesh();
@@ -264,7 +260,7 @@ public class UndoResizeManipulable extends AbstractUndoableEdit {
 			rect.y = newY;
 			rect.width = newW;
 			rect.height = newH;
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 		} else if (selectedManipulable instanceof Heliostat) {
 			Shape shape = selectedManipulable.getShape();
 			Rectangle2D.Float rect = (Rectangle2D.Float) shape;
@@ -104,9 +104,7 @@ public class UndoTranslateManipulable extends AbstractUndoableEdit {
 		super.undo();
 		if (selectedManipulable instanceof Part) {
 			undoShape();
-			model.refreshPowerArray();
-			model.refreshTemperatureBoundaryArray();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 			model.refreshHeliostatsAimedAt((Part) selectedManipulable);
 			if (view.isViewFactorLinesOn())
 				model.generateViewFactorMesh();
@@ -125,7 +123,7 @@ public class UndoTranslateManipulable extends AbstractUndoableEdit {
 			particleFeeder.setY(oldY);
 		} else if (selectedManipulable instanceof Fan) {
 			undoShape();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 		} else if (selectedManipulable instanceof Heliostat) {
 			undoShape();
 			((Heliostat) selectedManipulable).setAngle();
@@ -181,9 +179,7 @@ public class UndoTranslateManipulable extends AbstractUndoableEdit {
 		super.redo();
 		if (selectedManipulable instanceof Part) {
 			redoShape();
-			model.refreshPowerArray();
-			model.refreshTemperatureBoundaryArray();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 			model.refreshHeliostatsAimedAt((Part) selectedManipulable);
 			if (view.isViewFactorLinesOn())
 				model.generateViewFactorMesh();
@@ -198,7 +194,7 @@ public class UndoTranslateManipulable extends AbstractUndoableEdit {
 			particleFeeder.setY(newY);
 		} else if (selectedManipulable instanceof Fan) {
 			redoShape();
-			model.refreshMaterialPropertyArrays();
+			model.refreshArraysAround(selectedManipulable);
 		} else if (selectedManipulable instanceof Heliostat) {
 			redoShape();
 			((Heliostat) selectedManipulable).setAngle();
@@ -29,6 +29,11 @@ class VectorRenderer {
 		this.view = view;
 	}
 
+	void setGridResolution(int nx, int ny) {
+		this.nx = nx;
+		this.ny = ny;
+	}
+
 	static float getDefaultMinimumValueSquare() {
 		return defaultMinSquare;
 	}
@@ -2415,7 +2415,7 @@ public class View2D extends JPanel implements PropertyChangeListener {
 					if (!Float.isNaN(vx) && !Float.isNaN(vy)) {
 						if (model.isRunning()) {
 							float direction = Math.signum(model.getVorticity(ix, iy, Sensor.NINE_POINT));
-							a.setAngle((a.getAngle() + (float) Math.hypot(vx, vy) * direction * iconW2 * model.getTimeStep()) % (float) (2 * Math.PI));
+							a.setAngle((a.getAngle() + (float) Math.hypot(vx, vy) * direction * iconW2 * model.getCurrentTimeStep()) % (float) (2 * Math.PI));
 						}
 						if (a.getLabel() != null)
 							centerString(a.getLabel(), g, (int) (x + iconW2), y + s.getIconHeight() + 12, false);
@@ -2995,7 +2995,7 @@ public class View2D extends JPanel implements PropertyChangeListener {
 		float[][] temperature = model.getTemperature();
 		int nx = temperature.length;
 		int ny = temperature[0].length;
-		if (distribution == null)
+		if (distribution == null || distribution.length != nx || distribution[0].length != ny)
 			distribution = new float[nx][ny];
 		float factor = 1f / model.getMaximumHeatCapacity();
 		for (int i = 0; i < nx; i++) {
@@ -4871,6 +4871,14 @@ public class View2D extends JPanel implements PropertyChangeListener {
 			float timeStep = (Float) e.getNewValue();
 			graphRenderer.setXmax(7200 * timeStep);
 			photonLength = Math.max(5, timeStep * 0.1f);
+		} else if (pName.equals("Grid resolution")) {
+			nx = model.getNx();
+			ny = model.getNy();
+			if (gridRenderer != null)
+				gridRenderer.setGridResolution(nx, ny);
+			if (vectorFieldRenderer != null)
+				vectorFieldRenderer.setGridResolution(nx, ny);
+			repaint();
 		} else if (pName.equals("Next Simulation")) {
 			if (nextIcon != null) {
 				nextIcon.setDisabled(e.getNewValue() == null);